@@ -37,7 +37,6 @@ import kotlin.math.max
 import kotlin.math.min
 import kotlin.math.roundToInt
 import kotlinx.coroutines.GlobalScope
-import kotlinx.coroutines.channels.consumeEach
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.jdk9.flowPublish
 import kotlinx.coroutines.launch
@@ -52,6 +51,7 @@ import org.openhab.habdroid.ui.SelectionItemActivity
 import org.openhab.habdroid.util.DeviceControlSubtitleMode
 import org.openhab.habdroid.util.HttpClient
 import org.openhab.habdroid.util.ItemClient
+import org.openhab.habdroid.util.ItemEventBus
 import org.openhab.habdroid.util.PendingIntent_Immutable
 import org.openhab.habdroid.util.PrefKeys
 import org.openhab.habdroid.util.getConnectionFactory
@@ -80,8 +80,8 @@ class ItemsControlsProviderService : ControlsProviderService() {
             .mapNotNull { factory.maybeCreateControl(it.value) }
             .forEach { control -> send(control) }
 
-        ItemClient.listenForItemChange(this, connection, null)
-            .consumeEach { (itemName, state) ->
+        ItemEventBus.events(connection)
+            .collect { (itemName, state) ->
                 allItems[itemName]
                     ?.copy(state = state.toParsedState())
                     ?.let { factory.maybeCreateControl(it) }
@@ -34,6 +34,7 @@ import org.openhab.habdroid.model.CloudMessage
 import org.openhab.habdroid.model.CloudNotificationId
 import org.openhab.habdroid.model.IconResource
 import org.openhab.habdroid.ui.MainActivity
+import org.openhab.habdroid.util.CacheManager
 import org.openhab.habdroid.util.HttpClient
 import org.openhab.habdroid.util.IconBackground
 import org.openhab.habdroid.util.ImageConversionPolicy
@@ -227,7 +228,8 @@ class NotificationHelper(private val context: Context) {
                     .asBitmap(
                         targetSize,
                         context.getIconFallbackColor(IconBackground.OS_THEME),
-                        ImageConversionPolicy.PreferTargetSize
+                        ImageConversionPolicy.PreferTargetSize,
+                        CacheManager.getInstance(context)
                     )
                     .response
                 bitmap
@@ -17,6 +17,7 @@ import android.app.AppOpsManager
 import android.app.AsyncNotedAppOp
 import android.app.SyncNotedAppOp
 import android.content.BroadcastReceiver
+import android.content.ComponentCallbacks2
 import android.content.Context
 import android.content.Intent
 import android.content.IntentFilter
@@ -38,6 +39,8 @@ import org.openhab.habdroid.R
 import org.openhab.habdroid.background.BackgroundTasksManager
 import org.openhab.habdroid.core.connection.ConnectionFactory
 import org.openhab.habdroid.core.connection.ConnectionManagerHelper
+import org.openhab.habdroid.ui.VideoPlayerPool
+import org.openhab.habdroid.util.CacheManager
 import org.openhab.habdroid.util.CrashReportingHelper
 import org.openhab.habdroid.util.getDayNightMode
 import org.openhab.habdroid.util.getPrefs
@@ -169,6 +172,17 @@ class OpenHabApplication : MultiDexApplication() {
         appOpsManager.setOnOpNotedCallback(mainExecutor, appOpsCallback)
     }
 
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        if (CrashReportingHelper.isCrashReporterProcess()) {
+            return
+        }
+        CacheManager.getInstance(this).trimMemory(level)
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            VideoPlayerPool.getInstance(this).releaseIdlePlayers()
+        }
+    }
+
     override fun onTerminate() {
         super.onTerminate()
         connectionFactory.shutdown()
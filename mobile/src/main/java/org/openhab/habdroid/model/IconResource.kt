@@ -197,12 +197,15 @@ internal fun String?.toOH2WidgetIconResource(
             // Color toggles should behave similarly to the logic below (but using the brightness value)
             type == Widget.Type.Switch && !hasMappings -> if (item.state.asBrightness == 0) "OFF" else "ON"
 
-            item.state.asHsv != null -> {
-                val color = item.state.asHsv.toColor()
-                String.format(Locale.US, "#%02x%02x%02x", Color.red(color), Color.green(color), Color.blue(color))
+            else -> {
+                val hsv = item.state.asHsv
+                if (hsv != null) {
+                    val color = hsv.toColor()
+                    String.format(Locale.US, "#%02x%02x%02x", Color.red(color), Color.green(color), Color.blue(color))
+                } else {
+                    item.state.asString
+                }
             }
-
-            else -> item.state.asString
         }
 
         type == Widget.Type.Switch && !hasMappings && !item.isOfTypeOrGroupType(Item.Type.Rollershutter) -> {
@@ -14,17 +14,20 @@
 package org.openhab.habdroid.model
 
 import android.os.Parcelable
+import java.io.IOException
 import java.util.Locale
 import kotlinx.parcelize.Parcelize
 import org.json.JSONException
 import org.json.JSONObject
 import org.openhab.habdroid.R
-import org.openhab.habdroid.util.forEach
+import org.openhab.habdroid.util.forEachChildElement
 import org.openhab.habdroid.util.map
 import org.openhab.habdroid.util.mapString
 import org.openhab.habdroid.util.optFloatOrNull
 import org.openhab.habdroid.util.optStringOrNull
-import org.w3c.dom.Node
+import org.openhab.habdroid.util.readTextContent
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserException
 
 @Parcelize
 @ConsistentCopyVisibility
@@ -242,19 +245,23 @@ data class Item internal constructor(
     }
 }
 
-fun Node.toItem(): Item? {
+/**
+ * Reads an item from the element the parser is positioned at, and moves the parser to the element's end tag.
+ */
+@Throws(XmlPullParserException::class, IOException::class)
+fun XmlPullParser.readItem(): Item? {
     var name: String? = null
     var state: String? = null
     var link: String? = null
     var type = Item.Type.None
     var groupType = Item.Type.None
-    childNodes.forEach { node ->
-        when (node.nodeName) {
-            "type" -> type = node.textContent.toItemType()
-            "groupType" -> groupType = node.textContent.toItemType()
-            "name" -> name = node.textContent
-            "state" -> state = node.textContent
-            "link" -> link = node.textContent
+    forEachChildElement { elementName ->
+        when (elementName) {
+            "type" -> type = readTextContent().toItemType()
+            "groupType" -> groupType = readTextContent().toItemType()
+            "name" -> name = readTextContent()
+            "state" -> state = readTextContent()
+            "link" -> link = readTextContent()
         }
     }
 
@@ -14,11 +14,14 @@
 package org.openhab.habdroid.model
 
 import android.os.Parcelable
+import java.io.IOException
 import kotlinx.parcelize.Parcelize
 import org.json.JSONObject
-import org.openhab.habdroid.util.forEach
+import org.openhab.habdroid.util.forEachChildElement
 import org.openhab.habdroid.util.optStringOrNull
-import org.w3c.dom.Node
+import org.openhab.habdroid.util.readTextContent
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserException
 
 /**
  * This is a class to hold information about openHAB linked page.
@@ -38,18 +41,19 @@ data class LinkedPage(val id: String, val title: String, val icon: IconResource?
     }
 }
 
-fun Node.toLinkedPage(): LinkedPage? {
+@Throws(XmlPullParserException::class, IOException::class)
+fun XmlPullParser.readLinkedPage(): LinkedPage? {
     var id: String? = null
     var title: String? = null
     var icon: String? = null
     var link: String? = null
 
-    childNodes.forEach { node ->
-        when (node.nodeName) {
-            "id" -> id = node.textContent
-            "title" -> title = node.textContent
-            "icon" -> icon = node.textContent
-            "link" -> link = node.textContent
+    forEachChildElement { elementName ->
+        when (elementName) {
+            "id" -> id = readTextContent()
+            "title" -> title = readTextContent()
+            "icon" -> icon = readTextContent()
+            "link" -> link = readTextContent()
         }
     }
 
@@ -16,6 +16,7 @@ package org.openhab.habdroid.model
 import android.graphics.Color
 import android.location.Location
 import android.os.Parcelable
+import androidx.annotation.VisibleForTesting
 import java.time.LocalDateTime
 import java.time.format.DateTimeFormatter
 import java.time.format.DateTimeParseException
@@ -23,6 +24,7 @@ import java.util.IllegalFormatException
 import java.util.Locale
 import java.util.regex.Pattern
 import kotlin.math.roundToInt
+import kotlinx.parcelize.IgnoredOnParcel
 import kotlinx.parcelize.Parcelize
 import org.openhab.habdroid.util.asColorTemperatureToKelvin
 
@@ -33,22 +35,93 @@ data class HsvState internal constructor(val hue: Float, val saturation: Float,
         Color.HSVToColor(floatArrayOf(hue, saturation, if (includeValue) value else 100F))
 }
 
+/**
+ * Holds a state string along with its interpretations as the different state types.
+ * As most users only need a few of those, each interpretation is only parsed when first accessed.
+ */
 @Parcelize
-@ConsistentCopyVisibility
-data class ParsedState internal constructor(
-    val asString: String,
-    val asBoolean: Boolean,
-    val asNumber: NumberState?,
-    val asHsv: HsvState?,
-    val asBrightness: Int?,
-    val asLocation: Location?,
-    val asDateTime: LocalDateTime?
-) : Parcelable {
+class ParsedState internal constructor(val asString: String, private val formatPattern: String?) : Parcelable {
+    @IgnoredOnParcel
+    @Volatile
+    private var parsedBoolean: Any? = NOT_PARSED
+
+    @IgnoredOnParcel
+    @Volatile
+    private var parsedNumber: Any? = NOT_PARSED
+
+    @IgnoredOnParcel
+    @Volatile
+    private var parsedHsv: Any? = NOT_PARSED
+
+    @IgnoredOnParcel
+    @Volatile
+    private var parsedBrightness: Any? = NOT_PARSED
+
+    @IgnoredOnParcel
+    @Volatile
+    private var parsedLocation: Any? = NOT_PARSED
+
+    @IgnoredOnParcel
+    @Volatile
+    private var parsedDateTime: Any? = NOT_PARSED
+
+    val asBoolean: Boolean get() {
+        if (parsedBoolean === NOT_PARSED) {
+            parsedBoolean = parseAsBoolean(asString).also { parseListener?.invoke() }
+        }
+        return parsedBoolean as Boolean
+    }
+
+    val asNumber: NumberState? get() {
+        if (parsedNumber === NOT_PARSED) {
+            parsedNumber = parseAsNumber(asString, formatPattern).also { parseListener?.invoke() }
+        }
+        return parsedNumber as NumberState?
+    }
+
+    val asHsv: HsvState? get() {
+        if (parsedHsv === NOT_PARSED) {
+            parsedHsv = parseAsHsv(asString).also { parseListener?.invoke() }
+        }
+        return parsedHsv as HsvState?
+    }
+
+    val asBrightness: Int? get() {
+        if (parsedBrightness === NOT_PARSED) {
+            parsedBrightness = parseAsBrightness(asString).also { parseListener?.invoke() }
+        }
+        return parsedBrightness as Int?
+    }
+
+    val asLocation: Location? get() {
+        if (parsedLocation === NOT_PARSED) {
+            parsedLocation = parseAsLocation(asString).also { parseListener?.invoke() }
+        }
+        return parsedLocation as Location?
+    }
+
+    val asDateTime: LocalDateTime? get() {
+        if (parsedDateTime === NOT_PARSED) {
+            parsedDateTime = parseAsDateTime(asString).also { parseListener?.invoke() }
+        }
+        return parsedDateTime as LocalDateTime?
+    }
+
     override fun equals(other: Any?) = other is ParsedState && asString == other.asString
 
     override fun hashCode() = asString.hashCode()
 
+    override fun toString() = "ParsedState(asString=$asString)"
+
     companion object {
+        private val NOT_PARSED = Any()
+
+        /**
+         * Invoked whenever a state interpretation is parsed, allows tests to verify parsing is done lazily
+         */
+        @VisibleForTesting
+        internal var parseListener: (() -> Unit)? = null
+
         internal fun parseAsBoolean(state: String): Boolean {
             // If state is ON for switches return True
             if (state == "ON") {
@@ -218,13 +291,5 @@ fun String?.toParsedState(formatPattern: String? = null): ParsedState? {
     if (this == null) {
         return null
     }
-    return ParsedState(
-        this,
-        ParsedState.parseAsBoolean(this),
-        ParsedState.parseAsNumber(this, formatPattern),
-        ParsedState.parseAsHsv(this),
-        ParsedState.parseAsBrightness(this),
-        ParsedState.parseAsLocation(this),
-        ParsedState.parseAsDateTime(this)
-    )
+    return ParsedState(this, formatPattern)
 }
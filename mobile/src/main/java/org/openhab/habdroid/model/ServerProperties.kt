@@ -16,11 +16,8 @@ package org.openhab.habdroid.model
 import android.os.Parcelable
 import android.util.Log
 import java.io.IOException
-import java.io.StringReader
 import java.time.ZoneId
 import java.time.zone.ZoneRulesException
-import javax.xml.parsers.DocumentBuilderFactory
-import javax.xml.parsers.ParserConfigurationException
 import kotlinx.parcelize.Parcelize
 import okhttp3.Request
 import org.json.JSONArray
@@ -29,11 +26,16 @@ import org.json.JSONObject
 import org.openhab.habdroid.core.connection.Connection
 import org.openhab.habdroid.util.HttpClient
 import org.openhab.habdroid.util.optStringOrNull
-import org.xml.sax.InputSource
-import org.xml.sax.SAXException
+import org.openhab.habdroid.util.toXmlPullParser
+import org.xmlpull.v1.XmlPullParserException
 
 @Parcelize
-data class ServerProperties(val flags: Int, val timezoneId: String?, val sitemaps: List<Sitemap>) : Parcelable {
+data class ServerProperties(
+    val flags: Int,
+    val timezoneId: String?,
+    val runtimeVersion: String?,
+    val sitemaps: List<Sitemap>
+) : Parcelable {
     fun hasJsonApi(): Boolean = flags and SERVER_FLAG_JSON_REST_API != 0
 
     fun hasSseSupport(): Boolean = flags and SERVER_FLAG_SSE_SUPPORT != 0
@@ -57,7 +59,7 @@ data class ServerProperties(val flags: Int, val timezoneId: String?, val sitemap
 
         private sealed interface FlagsResult
 
-        private class FlagsSuccess(val flags: Int, val timezoneId: String?) : FlagsResult
+        private class FlagsSuccess(val flags: Int, val timezoneId: String?, val runtimeVersion: String?) : FlagsResult
 
         private class FlagsFailure(val request: Request, val httpStatusCode: Int, val error: Throwable) : FlagsResult
 
@@ -68,11 +70,16 @@ data class ServerProperties(val flags: Int, val timezoneId: String?, val sitemap
         class PropsFailure(val request: Request, val httpStatusCode: Int, val error: Throwable) : PropsResult
 
         suspend fun updateSitemaps(props: ServerProperties, connection: Connection): PropsResult =
-            fetchSitemaps(connection.httpClient, props.flags, props.timezoneId)
+            fetchSitemaps(connection.httpClient, props.flags, props.timezoneId, props.runtimeVersion)
 
         suspend fun fetch(connection: Connection): PropsResult =
             when (val flagsResult = fetchFlags(connection.httpClient)) {
-                is FlagsSuccess -> fetchSitemaps(connection.httpClient, flagsResult.flags, flagsResult.timezoneId)
+                is FlagsSuccess -> fetchSitemaps(
+                    connection.httpClient,
+                    flagsResult.flags,
+                    flagsResult.timezoneId,
+                    flagsResult.runtimeVersion
+                )
                 is FlagsFailure -> PropsFailure(flagsResult.request, flagsResult.httpStatusCode, flagsResult.error)
             }
 
@@ -129,11 +136,13 @@ data class ServerProperties(val flags: Int, val timezoneId: String?, val sitemap
                     null
                 }
 
-                FlagsSuccess(flags, timeZoneId)
+                val runtimeVersion = resultJson.optJSONObject("runtimeInfo")?.optStringOrNull("version")
+
+                FlagsSuccess(flags, timeZoneId, runtimeVersion)
             } catch (e: JSONException) {
                 if (result.response.startsWith("<?xml")) {
                     // We're talking to an OH1 instance
-                    FlagsSuccess(0, null)
+                    FlagsSuccess(0, null, null)
                 } else {
                     FlagsFailure(result.request, 200, e)
                 }
@@ -142,7 +151,12 @@ data class ServerProperties(val flags: Int, val timezoneId: String?, val sitemap
             FlagsFailure(e.request, e.statusCode, e)
         }
 
-        private suspend fun fetchSitemaps(client: HttpClient, flags: Int, timezoneId: String?): PropsResult = try {
+        private suspend fun fetchSitemaps(
+            client: HttpClient,
+            flags: Int,
+            timezoneId: String?,
+            runtimeVersion: String?
+        ): PropsResult = try {
             val result = client.get("rest/sitemaps").asText()
             // OH1 returns XML, later versions return JSON
             val sitemaps = if (flags and SERVER_FLAG_JSON_REST_API != 0) {
@@ -152,20 +166,17 @@ data class ServerProperties(val flags: Int, val timezoneId: String?, val sitemap
             }
 
             Log.d(TAG, "Server returned sitemaps: $sitemaps")
-            PropsSuccess(ServerProperties(flags, timezoneId, sitemaps))
+            PropsSuccess(ServerProperties(flags, timezoneId, runtimeVersion, sitemaps))
         } catch (e: HttpClient.HttpException) {
             PropsFailure(e.request, e.statusCode, e)
         }
 
         private fun loadSitemapsFromXml(response: String): List<Sitemap> {
-            val dbf = DocumentBuilderFactory.newInstance()
             try {
-                val builder = dbf.newDocumentBuilder()
-                val sitemapsXml = builder.parse(InputSource(StringReader(response)))
-                return sitemapsXml.toSitemapList()
-            } catch (e: ParserConfigurationException) {
-                Log.e(TAG, "Failed parsing sitemap XML", e)
-            } catch (e: SAXException) {
+                val parser = response.toXmlPullParser()
+                parser.nextTag()
+                return parser.readSitemapList()
+            } catch (e: XmlPullParserException) {
                 Log.e(TAG, "Failed parsing sitemap XML", e)
             } catch (e: IOException) {
                 Log.e(TAG, "Failed parsing sitemap XML", e)
@@ -15,14 +15,16 @@ package org.openhab.habdroid.model
 
 import android.os.Parcelable
 import android.util.Log
+import java.io.IOException
 import kotlinx.parcelize.Parcelize
 import org.json.JSONArray
 import org.json.JSONException
 import org.json.JSONObject
-import org.openhab.habdroid.util.forEach
+import org.openhab.habdroid.util.forEachChildElement
 import org.openhab.habdroid.util.optStringOrNull
-import org.w3c.dom.Document
-import org.w3c.dom.Node
+import org.openhab.habdroid.util.readTextContent
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserException
 
 @Parcelize
 @ConsistentCopyVisibility
@@ -33,24 +35,25 @@ data class Sitemap internal constructor(
     val homepageLink: String
 ) : Parcelable
 
-fun Node.toSitemap(): Sitemap? {
+@Throws(XmlPullParserException::class, IOException::class)
+fun XmlPullParser.readSitemap(): Sitemap? {
     var label: String? = null
     var name: String? = null
     var icon: String? = null
     var homepageLink: String? = null
 
-    childNodes.forEach { node ->
-        when (node.nodeName) {
-            "name" -> name = node.textContent
+    forEachChildElement { elementName ->
+        when (elementName) {
+            "name" -> name = readTextContent()
 
-            "label" -> label = node.textContent
+            "label" -> label = readTextContent()
 
-            "icon" -> icon = node.textContent
+            "icon" -> icon = readTextContent()
 
             "homepage" ->
-                node.childNodes.forEach { pageNode ->
-                    if (pageNode.nodeName == "link") {
-                        homepageLink = pageNode.textContent
+                forEachChildElement { pageElementName ->
+                    if (pageElementName == "link") {
+                        homepageLink = readTextContent()
                     }
                 }
         }
@@ -70,9 +73,18 @@ fun JSONObject.toSitemap(): Sitemap? {
     return Sitemap(name, label ?: name, icon.toOH2IconResource(), homepageLink)
 }
 
-fun Document.toSitemapList(): List<Sitemap> {
-    val sitemapNodes = getElementsByTagName("sitemap")
-    return (0 until sitemapNodes.length).mapNotNull { index -> sitemapNodes.item(index).toSitemap() }
+/**
+ * Reads the sitemaps contained in the element the parser is positioned at.
+ */
+@Throws(XmlPullParserException::class, IOException::class)
+fun XmlPullParser.readSitemapList(): List<Sitemap> {
+    val sitemaps = ArrayList<Sitemap>()
+    forEachChildElement { elementName ->
+        if (elementName == "sitemap") {
+            readSitemap()?.let { sitemap -> sitemaps.add(sitemap) }
+        }
+    }
+    return sitemaps
 }
 
 fun JSONArray.toSitemapList(): List<Sitemap> = (0 until length()).mapNotNull { index ->
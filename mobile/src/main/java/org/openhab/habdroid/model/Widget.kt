@@ -16,6 +16,10 @@ package org.openhab.habdroid.model
 import android.content.SharedPreferences
 import android.net.Uri
 import android.os.Parcelable
+import android.util.JsonReader
+import android.util.JsonToken
+import java.io.IOException
+import java.util.EnumSet
 import kotlin.math.abs
 import kotlin.math.max
 import kotlin.math.min
@@ -24,15 +28,19 @@ import org.json.JSONException
 import org.json.JSONObject
 import org.openhab.habdroid.util.appendQueryParameter
 import org.openhab.habdroid.util.forEach
+import org.openhab.habdroid.util.forEachChildElement
 import org.openhab.habdroid.util.getChartScalingFactor
 import org.openhab.habdroid.util.map
+import org.openhab.habdroid.util.nextJsonValue
 import org.openhab.habdroid.util.optBooleanOrNull
 import org.openhab.habdroid.util.optFloatOrNull
 import org.openhab.habdroid.util.optIntOrNull
 import org.openhab.habdroid.util.optStringOrFallback
 import org.openhab.habdroid.util.optStringOrNull
+import org.openhab.habdroid.util.readTextContent
 import org.openhab.habdroid.util.shouldRequestHighResChart
-import org.w3c.dom.Node
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserException
 
 @Parcelize
 data class Widget(
@@ -162,6 +170,21 @@ data class Widget(
         SitemapDefinition
     }
 
+    /**
+     * Aspects of a widget that can change independently of each other, e.g. via state update events.
+     */
+    enum class Change {
+        // Widget state, item state, the state part of the label or the value color
+        State,
+
+        // Label text without state or label color
+        Label,
+
+        // Icon or icon color
+        Icon,
+        Visibility
+    }
+
     fun toChartUrl(
         prefs: SharedPreferences,
         width: Int,
@@ -202,6 +225,40 @@ data class Widget(
     }
 
     companion object {
+        /**
+         * Determines which aspects differ between two versions of the same widget.
+         *
+         * @return Changed aspects, or null if the widgets also differ in properties not covered by [Change]
+         */
+        fun changesBetween(old: Widget, new: Widget): Set<Change>? {
+            val changes = EnumSet.noneOf(Change::class.java)
+            if (old.state != new.state || old.item?.state != new.item?.state ||
+                old.stateFromLabel != new.stateFromLabel || old.valueColor != new.valueColor
+            ) {
+                changes.add(Change.State)
+            }
+            if (old.label != new.label || old.labelColor != new.labelColor) {
+                changes.add(Change.Label)
+            }
+            if (old.icon != new.icon || old.iconColor != new.iconColor) {
+                changes.add(Change.Icon)
+            }
+            if (old.visibility != new.visibility) {
+                changes.add(Change.Visibility)
+            }
+            val newWithOldAspects = new.copy(
+                rawLabel = old.rawLabel,
+                state = old.state,
+                item = new.item?.copy(state = old.item?.state),
+                valueColor = old.valueColor,
+                labelColor = old.labelColor,
+                icon = old.icon,
+                iconColor = old.iconColor,
+                visibility = old.visibility
+            )
+            return if (newWithOldAspects == old) changes else null
+        }
+
         @Throws(JSONException::class)
         fun updateFromEvent(source: Widget, eventPayload: JSONObject): Widget {
             val item = Item.updateFromEvent(source.item, eventPayload.optJSONObject("item"))
@@ -297,8 +354,13 @@ fun String?.toLabelSource(): Widget.LabelSource = when (this) {
     else -> Widget.LabelSource.Unknown
 }
 
-// This function is only used on openHAB versions with XML API, which is openHAB 1.x
-fun Node.collectWidgets(parent: Widget?): List<Widget> {
+/**
+ * Reads the widget the parser is positioned at and adds it and its children to [result],
+ * moving the parser to the widget's end tag.
+ * This function is only used on openHAB versions with XML API, which is openHAB 1.x
+ */
+@Throws(XmlPullParserException::class, IOException::class)
+fun XmlPullParser.readWidget(parentId: String?, result: MutableList<Widget>) {
     var item: Item? = null
     var linkedPage: LinkedPage? = null
     var id: String? = null
@@ -319,57 +381,63 @@ fun Node.collectWidgets(parent: Widget?): List<Widget> {
     var refresh = 0
     var height = 0
     val mappings = ArrayList<LabeledValue>()
-    val childWidgetNodes = ArrayList<Node>()
+    val children = ArrayList<Widget>()
+    val childIndexesWithoutParent = ArrayList<Int>()
 
-    childNodes.forEach { node ->
-        when (node.nodeName) {
-            "item" -> item = node.toItem()
+    forEachChildElement { elementName ->
+        when (elementName) {
+            "item" -> item = readItem()
 
-            "linkedPage" -> linkedPage = node.toLinkedPage()
+            "linkedPage" -> linkedPage = readLinkedPage()
 
-            "widget" -> childWidgetNodes.add(node)
+            "widget" -> {
+                if (id == null) {
+                    childIndexesWithoutParent.add(children.size)
+                }
+                readWidget(id, children)
+            }
 
-            "type" -> type = node.textContent.toWidgetType()
+            "type" -> type = readTextContent().toWidgetType()
 
-            "widgetId" -> id = node.textContent
+            "widgetId" -> id = readTextContent()
 
-            "label" -> label = node.textContent
+            "label" -> label = readTextContent()
 
-            "icon" -> icon = node.textContent
+            "icon" -> icon = readTextContent()
 
-            "url" -> url = node.textContent
+            "url" -> url = readTextContent()
 
-            "minValue" -> minValue = node.textContent.toFloat()
+            "minValue" -> minValue = readTextContent().toFloat()
 
-            "maxValue" -> maxValue = node.textContent.toFloat()
+            "maxValue" -> maxValue = readTextContent().toFloat()
 
-            "step" -> step = node.textContent.toFloat()
+            "step" -> step = readTextContent().toFloat()
 
-            "refresh" -> refresh = node.textContent.toInt()
+            "refresh" -> refresh = readTextContent().toInt()
 
-            "period" -> period = node.textContent
+            "period" -> period = readTextContent()
 
-            "service" -> service = node.textContent
+            "service" -> service = readTextContent()
 
-            "height" -> height = node.textContent.toInt()
+            "height" -> height = readTextContent().toInt()
 
-            "iconcolor" -> iconColor = node.textContent
+            "iconcolor" -> iconColor = readTextContent()
 
-            "valuecolor" -> valueColor = node.textContent
+            "valuecolor" -> valueColor = readTextContent()
 
-            "labelcolor" -> labelColor = node.textContent
+            "labelcolor" -> labelColor = readTextContent()
 
-            "encoding" -> encoding = node.textContent
+            "encoding" -> encoding = readTextContent()
 
-            "switchSupport" -> switchSupport = node.textContent?.toBoolean() == true
+            "switchSupport" -> switchSupport = readTextContent().toBoolean()
 
             "mapping" -> {
                 var mappingCommand = ""
                 var mappingLabel = ""
-                node.childNodes.forEach { childNode ->
-                    when (childNode.nodeName) {
-                        "command" -> mappingCommand = childNode.textContent
-                        "label" -> mappingLabel = childNode.textContent
+                forEachChildElement { mappingElementName ->
+                    when (mappingElementName) {
+                        "command" -> mappingCommand = readTextContent()
+                        "label" -> mappingLabel = readTextContent()
                     }
                 }
                 mappings.add(LabeledValue(mappingCommand, null, mappingLabel, null, 0, 0))
@@ -379,11 +447,11 @@ fun Node.collectWidgets(parent: Widget?): List<Widget> {
         }
     }
 
-    val finalId = id ?: return emptyList()
+    val finalId = id ?: return
 
     val widget = Widget(
         id = finalId,
-        parentId = parent?.id,
+        parentId = parentId,
         rawLabel = label.orEmpty(),
         labelSource = Widget.LabelSource.Unknown,
         icon = icon.toOH1IconResource(),
@@ -422,13 +490,72 @@ fun Node.collectWidgets(parent: Widget?): List<Widget> {
         rawInputHint = null,
         visibility = true
     )
-    val childWidgets = childWidgetNodes.map { node -> node.collectWidgets(widget) }.flatten()
-
-    return listOf(widget) + childWidgets
+    // The widget ID might only be known after its children were read
+    childIndexesWithoutParent.forEach { index -> children[index] = children[index].copy(parentId = finalId) }
+    result.add(widget)
+    result.addAll(children)
 }
 
 @Throws(JSONException::class)
 fun JSONObject.collectWidgets(parent: Widget?): List<Widget> {
+    val widget = toWidget(parent?.id)
+    val result = arrayListOf(widget)
+    val childWidgetJson = optJSONArray("widgets")
+    childWidgetJson?.forEach { obj -> result.addAll(obj.collectWidgets(widget)) }
+    return result
+}
+
+/**
+ * Reads an array of widgets from the stream and adds them to [result], in the same order
+ * as [collectWidgets] would return them.
+ */
+@Throws(IOException::class, JSONException::class)
+fun JsonReader.readWidgets(parentId: String?, result: MutableList<Widget>) {
+    beginArray()
+    while (hasNext()) {
+        readWidget(parentId, result)
+    }
+    endArray()
+}
+
+@Throws(IOException::class, JSONException::class)
+private fun JsonReader.readWidget(parentId: String?, result: MutableList<Widget>) {
+    // Child widgets are streamed instead of being stored in the JSON object,
+    // so only the properties of a single widget are held in memory at a time
+    val properties = JSONObject()
+    val children = ArrayList<Widget>()
+    val childIndexesWithoutParent = ArrayList<Int>()
+    beginObject()
+    while (hasNext()) {
+        val name = nextName()
+        if (name == "widgets" && peek() == JsonToken.BEGIN_ARRAY) {
+            val id = properties.optStringOrNull("widgetId")
+            beginArray()
+            while (hasNext()) {
+                if (id == null) {
+                    childIndexesWithoutParent.add(children.size)
+                }
+                readWidget(id, children)
+            }
+            endArray()
+        } else {
+            properties.put(name, nextJsonValue())
+        }
+    }
+    endObject()
+
+    val widget = properties.toWidget(parentId)
+    // The widget ID might only be known after its children were read
+    childIndexesWithoutParent.forEach { index -> children[index] = children[index].copy(parentId = widget.id) }
+    result.add(widget)
+    result.addAll(children)
+}
+
+/**
+ * Creates a widget from its JSON representation, ignoring child widgets contained in it.
+ */
+@Throws(JSONException::class)
+fun JSONObject.toWidget(parentId: String?): Widget {
     val mappings = if (has("mappings")) {
         getJSONArray("mappings").map { obj -> obj.toLabeledValue("command", "label") }
     } else {
@@ -440,9 +567,9 @@ fun JSONObject.collectWidgets(parent: Widget?): List<Widget> {
     val icon = optStringOrNull("icon")
     val staticIcon = optBoolean("staticIcon", false)
 
-    val widget = Widget(
+    return Widget(
         id = getString("widgetId"),
-        parentId = parent?.id,
+        parentId = parentId,
         rawLabel = optString("label", ""),
         labelSource = optStringOrNull("labelSource").toLabelSource(),
         icon = icon.toOH2WidgetIconResource(item, type, mappings.isNotEmpty(), !staticIcon),
@@ -477,9 +604,4 @@ fun JSONObject.collectWidgets(parent: Widget?): List<Widget> {
         rawInputHint = optStringOrNull("inputHint").toInputHint(),
         visibility = optBoolean("visibility", true)
     )
-
-    val result = arrayListOf(widget)
-    val childWidgetJson = optJSONArray("widgets")
-    childWidgetJson?.forEach { obj -> result.addAll(obj.collectWidgets(widget)) }
-    return result
 }
@@ -13,12 +13,19 @@
 
 package org.openhab.habdroid.model
 
+import android.util.JsonReader
+import android.util.JsonToken
 import android.util.Log
+import java.io.IOException
 import org.json.JSONException
 import org.json.JSONObject
 import org.openhab.habdroid.util.forEach
+import org.openhab.habdroid.util.forEachChildElement
+import org.openhab.habdroid.util.nextJsonValue
 import org.openhab.habdroid.util.optStringOrNull
-import org.w3c.dom.Node
+import org.openhab.habdroid.util.readTextContent
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserException
 
 /**
  * This class provides datasource for openHAB widgets from sitemap page.
@@ -35,38 +42,59 @@ class WidgetDataSource {
         private set
     var icon: String? = null
         private set
+    var isTimeout = false
+        private set
+
+    private var visibleWidgets: List<Widget>? = null
 
+    /**
+     * Widgets up to the depth shown on a page. Parents always precede their children in the widget list,
+     * so the nesting level of each widget is known when it's encountered.
+     */
     val widgets: List<Widget> get() {
-        val firstLevelWidgetIds = allWidgets
-            .filter { w -> w.parentId == null }
-            .map { w -> w.id }
-            .toSet()
-        val secondLevelWidgetIds = allWidgets
-            .filter { w -> w.parentId in firstLevelWidgetIds && w.type in ALLOWED_SECOND_LEVEL_PARENTS }
-            .map { w -> w.id }
-            .toSet()
-        return allWidgets.filter { w ->
-            w.parentId == null || w.parentId in firstLevelWidgetIds || w.parentId in secondLevelWidgetIds
+        visibleWidgets?.let { return it }
+        val firstLevelWidgetIds = HashSet<String>()
+        val secondLevelWidgetIds = HashSet<String>()
+        val result = allWidgets.filter { w ->
+            when (w.parentId) {
+                null -> {
+                    firstLevelWidgetIds.add(w.id)
+                    true
+                }
+                in firstLevelWidgetIds -> {
+                    if (w.type in ALLOWED_SECOND_LEVEL_PARENTS) {
+                        secondLevelWidgetIds.add(w.id)
+                    }
+                    true
+                }
+                else -> w.parentId in secondLevelWidgetIds
+            }
         }
+        visibleWidgets = result
+        return result
     }
 
-    fun setSourceNode(rootNode: Node?) {
-        if (rootNode == null) {
-            return
-        }
-        rootNode.childNodes.forEach { node ->
-            when (node.nodeName) {
-                "widget" -> allWidgets.addAll(node.collectWidgets(null))
-                "title" -> title = node.textContent.orEmpty()
-                "id" -> id = node.textContent
-                "icon" -> icon = node.textContent
-                "link" -> link = node.textContent
+    /**
+     * Reads the page from the element the parser is positioned at.
+     */
+    @Throws(XmlPullParserException::class, IOException::class)
+    fun setSourceXml(parser: XmlPullParser) {
+        visibleWidgets = null
+        parser.forEachChildElement { elementName ->
+            when (elementName) {
+                "widget" -> parser.readWidget(null, allWidgets)
+                "title" -> title = parser.readTextContent()
+                "id" -> id = parser.readTextContent()
+                "icon" -> icon = parser.readTextContent()
+                "link" -> link = parser.readTextContent()
                 else -> { }
             }
         }
     }
 
     fun setSourceJson(jsonObject: JSONObject) {
+        visibleWidgets = null
+        isTimeout = jsonObject.optBoolean("timeout", false)
         if (!jsonObject.has("widgets")) {
             return
         }
@@ -74,15 +102,50 @@ class WidgetDataSource {
             jsonObject.getJSONArray("widgets").forEach { obj ->
                 allWidgets.addAll(obj.collectWidgets(null))
             }
-            id = jsonObject.optStringOrNull("id")
-            title = jsonObject.optString("title", id.orEmpty())
-            icon = jsonObject.optStringOrNull("icon")
-            link = jsonObject.optStringOrNull("link")
+            setPageProperties(jsonObject)
         } catch (e: JSONException) {
             Log.d(TAG, e.message, e)
         }
     }
 
+    /**
+     * Reads the page from a stream, without keeping the whole page in memory as string or JSON object.
+     * The result is the same as passing the equivalent JSON object to [setSourceJson].
+     */
+    @Throws(IOException::class)
+    fun setSourceJson(reader: JsonReader) {
+        visibleWidgets = null
+        val pageProperties = JSONObject()
+        var hasWidgets = false
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val name = reader.nextName()
+            if (name == "widgets" && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                hasWidgets = true
+                try {
+                    reader.readWidgets(null, allWidgets)
+                } catch (e: JSONException) {
+                    Log.d(TAG, e.message, e)
+                    return
+                }
+            } else {
+                pageProperties.put(name, reader.nextJsonValue())
+            }
+        }
+        reader.endObject()
+        isTimeout = pageProperties.optBoolean("timeout", false)
+        if (hasWidgets) {
+            setPageProperties(pageProperties)
+        }
+    }
+
+    private fun setPageProperties(jsonObject: JSONObject) {
+        id = jsonObject.optStringOrNull("id")
+        title = jsonObject.optString("title", id.orEmpty())
+        icon = jsonObject.optStringOrNull("icon")
+        link = jsonObject.optStringOrNull("link")
+    }
+
     companion object {
         private val TAG = WidgetDataSource::class.java.simpleName
         private val ALLOWED_SECOND_LEVEL_PARENTS = setOf(Widget.Type.Buttongrid, Widget.Type.Frame)
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.model
+
+/**
+ * Describes the changes between two versions of the widget list of a page, matched by widget ID.
+ *
+ * @property inserted Widgets that are only present in the new list
+ * @property removed IDs of widgets that are only present in the old list
+ * @property moved Widgets present in both lists whose order or parent changed
+ * @property changed Widgets present in both lists at the same place, but with different contents
+ */
+data class WidgetListDiff(
+    val inserted: List<Widget>,
+    val removed: List<String>,
+    val moved: List<Widget>,
+    val changed: List<Widget>
+) {
+    val isEmpty get() = !hasStructuralChanges && changed.isEmpty()
+    val hasStructuralChanges get() = inserted.isNotEmpty() || removed.isNotEmpty() || moved.isNotEmpty()
+
+    companion object {
+        fun compute(oldWidgets: List<Widget>, newWidgets: List<Widget>): WidgetListDiff {
+            val oldWidgetsById = HashMap<String, Widget>(oldWidgets.size)
+            oldWidgets.forEach { widget -> oldWidgetsById[widget.id] = widget }
+            val newWidgetIds = HashSet<String>(newWidgets.size)
+            newWidgets.forEach { widget -> newWidgetIds.add(widget.id) }
+
+            val removed = oldWidgets.map { widget -> widget.id }.filter { id -> id !in newWidgetIds }
+            val inserted = ArrayList<Widget>()
+            val moved = ArrayList<Widget>()
+            val changed = ArrayList<Widget>()
+
+            // Compare the relative order of the widgets contained in both lists,
+            // so insertions and removals don't make all following widgets count as moved
+            val retainedOldIds = oldWidgets.map { widget -> widget.id }.filter { id -> id in newWidgetIds }
+            var retainedIndex = 0
+            newWidgets.forEach { widget ->
+                val oldWidget = oldWidgetsById[widget.id]
+                when {
+                    oldWidget == null -> inserted.add(widget)
+                    retainedOldIds[retainedIndex++] != widget.id || oldWidget.parentId != widget.parentId ->
+                        moved.add(widget)
+                    oldWidget != widget -> changed.add(widget)
+                }
+            }
+
+            return WidgetListDiff(inserted, removed, moved, changed)
+        }
+    }
+}
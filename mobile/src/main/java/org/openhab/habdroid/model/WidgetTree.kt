@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.model
+
+/**
+ * Index over the widget list of a page, which allows looking up widgets by ID, the children of
+ * a widget and whether a widget is shown in constant time.
+ *
+ * A widget is shown if it's visible, its parent (if any) is shown and, in case of frames,
+ * at least one of its children is visible.
+ */
+class WidgetTree(widgets: List<Widget>) {
+    private val items = ArrayList(widgets)
+    private val positionsById = HashMap<String, Int>(widgets.size)
+    private val childPositionsById = HashMap<String, MutableList<Int>>()
+    private var shown = BooleanArray(0)
+
+    val widgets: List<Widget> get() = items
+    val size get() = items.size
+
+    /**
+     * Position of the first shown widget, or -1 if no widget is shown
+     */
+    var firstShownPosition = -1
+        private set
+
+    init {
+        rebuild()
+    }
+
+    operator fun get(position: Int): Widget = items[position]
+
+    /**
+     * @return Position of the widget with the given ID, or -1 if there's no such widget
+     */
+    fun positionOf(id: String?): Int = id?.let { positionsById[it] } ?: -1
+
+    fun getById(id: String?): Widget? = positionOf(id).let { position -> if (position >= 0) items[position] else null }
+
+    fun childrenOf(id: String): List<Widget> = childPositionsById[id]?.map { position -> items[position] }.orEmpty()
+
+    fun isShown(position: Int) = shown[position]
+
+    /**
+     * Determines whether the given widget would be shown if it replaced the widget with the same ID.
+     */
+    fun isShown(widget: Widget): Boolean {
+        if (!widget.visibility || (widget.type == Widget.Type.Frame && !hasVisibleChildren(widget.id))) {
+            return false
+        }
+        val parentPosition = positionOf(widget.parentId)
+        return parentPosition < 0 || shown[parentPosition]
+    }
+
+    /**
+     * Replaces the widget at the given position.
+     *
+     * @return Positions of other widgets whose shown state changed due to the replacement
+     */
+    fun replace(position: Int, widget: Widget): List<Int> {
+        val oldWidget = items[position]
+        items[position] = widget
+        if (oldWidget.id != widget.id || oldWidget.parentId != widget.parentId || oldWidget.type != widget.type) {
+            val oldShown = shown
+            rebuild()
+            return items.indices.filter { p -> p != position && oldShown[p] != shown[p] }
+        }
+        if (oldWidget.visibility == widget.visibility) {
+            return emptyList()
+        }
+
+        // The visibility of a frame depends on the visibility of its children, so start with the parent frame
+        val parentPosition = positionOf(widget.parentId)
+        val changedPositions = ArrayList<Int>()
+        if (parentPosition >= 0 && items[parentPosition].type == Widget.Type.Frame) {
+            updateShownState(parentPosition, changedPositions)
+        } else {
+            updateShownState(position, changedPositions)
+        }
+        changedPositions.remove(position)
+        firstShownPosition = shown.indexOfFirst { it }
+        return changedPositions
+    }
+
+    private fun updateShownState(position: Int, changedPositions: MutableList<Int>) {
+        val newShown = isShown(items[position])
+        if (newShown != shown[position]) {
+            shown[position] = newShown
+            changedPositions.add(position)
+        }
+        childPositionsById[items[position].id]?.forEach { childPosition ->
+            updateShownState(childPosition, changedPositions)
+        }
+    }
+
+    private fun hasVisibleChildren(id: String) =
+        childPositionsById[id]?.any { position -> items[position].visibility } == true
+
+    private fun rebuild() {
+        positionsById.clear()
+        childPositionsById.clear()
+        items.forEachIndexed { position, widget ->
+            positionsById[widget.id] = position
+            widget.parentId?.let { parentId -> childPositionsById.getOrPut(parentId) { ArrayList() }.add(position) }
+        }
+
+        shown = BooleanArray(items.size)
+        val computed = BooleanArray(items.size)
+        fun computeShown(position: Int): Boolean {
+            if (!computed[position]) {
+                // Mark as computed first to not loop forever on cyclic parent relations
+                computed[position] = true
+                val widget = items[position]
+                val parentPosition = positionOf(widget.parentId)
+                shown[position] = widget.visibility &&
+                    (widget.type != Widget.Type.Frame || hasVisibleChildren(widget.id)) &&
+                    (parentPosition < 0 || computeShown(parentPosition))
+            }
+            return shown[position]
+        }
+        items.indices.forEach { position -> computeShown(position) }
+        firstShownPosition = shown.indexOfFirst { it }
+    }
+}
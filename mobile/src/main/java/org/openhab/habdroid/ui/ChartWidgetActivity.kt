@@ -66,7 +66,12 @@ import kotlin.math.nextUp
 import kotlin.math.pow
 import kotlin.math.roundToInt
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.coroutines.withContext
 import kotlinx.parcelize.Parcelize
 import org.json.JSONObject
@@ -309,13 +314,41 @@ class ChartWidgetActivity : AbstractBaseActivity() {
         }
         val startTime = timestamp.minus(period)
 
-        val allSeries = itemsForChart.map { item ->
-            progressCb(item.label ?: item.name)
-            try {
-                loadSeriesForItem(connection, item, startTime, serverTimeZoneId, serviceId)
-            } catch (e: NumberFormatException) {
-                throw StateParsingException(e, item)
+        // Load the series of group members in parallel, as each of them needs a round trip to the server
+        val loadSlots = Semaphore(MAX_PARALLEL_SERIES_LOADS)
+        val results = coroutineScope {
+            itemsForChart.map { item ->
+                async {
+                    loadSlots.withPermit {
+                        progressCb(item.label ?: item.name)
+                        try {
+                            Result.success(loadSeriesForItem(connection, item, startTime, serverTimeZoneId, serviceId))
+                        } catch (e: HttpClient.HttpException) {
+                            Result.failure(e)
+                        } catch (e: NumberFormatException) {
+                            Result.failure(StateParsingException(e, item))
+                        }
+                    }
+                }
+            }.awaitAll()
+        }
+
+        val allSeries = results.mapNotNull { result -> result.getOrNull() }
+        if (allSeries.isEmpty()) {
+            results.firstNotNullOfOrNull { result -> result.exceptionOrNull() }?.let { throw it }
+        }
+        // Show the series that could be loaded, but tell which ones are missing
+        val failedItemNames = itemsForChart.zip(results)
+            .filter { (_, result) -> result.isFailure }
+            .map { (item, result) ->
+                Log.w(TAG, "Could not load chart data for ${item.name}", result.exceptionOrNull())
+                item.label ?: item.name
             }
+        if (failedItemNames.isNotEmpty()) {
+            showSnackbar(
+                SNACKBAR_TAG_PARTIAL_DATA,
+                getString(R.string.chart_error_partial_data, failedItemNames.joinToString())
+            )
         }
         return ChartData(allSeries, timestamp, startTime)
     }
@@ -720,6 +753,8 @@ class ChartWidgetActivity : AbstractBaseActivity() {
 
     companion object {
         private val TAG = ChartWidgetActivity::class.java.simpleName
+        private const val SNACKBAR_TAG_PARTIAL_DATA = "partialData"
+        private const val MAX_PARALLEL_SERIES_LOADS = 4
 
         private val DURATION_MENU_MAPPING: Map<Int, TemporalAmount> = mapOf(
             R.id.period_h to Duration.ofHours(1),
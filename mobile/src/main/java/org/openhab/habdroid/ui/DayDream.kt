@@ -32,7 +32,6 @@ import kotlin.time.Duration.Companion.seconds
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
-import kotlinx.coroutines.channels.consumeEach
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.launch
@@ -41,6 +40,7 @@ import org.openhab.habdroid.R
 import org.openhab.habdroid.databinding.DaydreamBinding
 import org.openhab.habdroid.util.HttpClient
 import org.openhab.habdroid.util.ItemClient
+import org.openhab.habdroid.util.ItemEventBus
 import org.openhab.habdroid.util.PrefKeys
 import org.openhab.habdroid.util.getConnectionFactory
 import org.openhab.habdroid.util.getPrefs
@@ -96,8 +96,8 @@ class DayDream :
         }
         setText(initialText)
 
-        ItemClient.listenForItemChange(this, connection, item)
-            .consumeEach { (_, state) ->
+        ItemEventBus.events(connection, item)
+            .collect { (_, state) ->
                 Log.d(TAG, "Got state by event: $state")
                 setText(state)
             }
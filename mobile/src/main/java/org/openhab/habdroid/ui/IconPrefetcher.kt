@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.ui
+
+import android.content.Context
+import android.util.Log
+import androidx.annotation.ColorInt
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import okhttp3.HttpUrl
+import org.openhab.habdroid.core.connection.Connection
+import org.openhab.habdroid.util.CacheManager
+import org.openhab.habdroid.util.HttpClient
+import org.openhab.habdroid.util.ImageConversionPolicy
+
+/**
+ * Loads the icons of a page into [CacheManager] before their rows are bound, so scrolling through a
+ * page finds the icons in the cache instead of starting and cancelling requests for them.
+ *
+ * Icons are loaded in page order by a few workers, which pause while views are loading icons they
+ * need to show right now. Must only be used from the main thread.
+ */
+class IconPrefetcher private constructor(private val appContext: Context) {
+    private val scope = CoroutineScope(Dispatchers.Main + SupervisorJob())
+    private val queue = ArrayDeque<HttpUrl>()
+    private var target: Target? = null
+    private var activeLoads = 0
+    private var foregroundLoads = 0
+
+    /**
+     * Replaces the icons that are waiting to be loaded by the given ones, in order of priority.
+     */
+    fun prefetch(connection: Connection, iconUrls: List<String>, @ColorInt fallbackColor: Int, size: Int) {
+        val cacheManager = CacheManager.getInstance(appContext)
+        queue.clear()
+        iconUrls
+            .map { url -> connection.httpClient.buildUrl(url) }
+            .distinct()
+            .filter { url -> !cacheManager.isBitmapCached(url, fallbackColor) }
+            .forEach { url -> queue.addLast(url) }
+        Log.d(TAG, "Prefetching ${queue.size} of ${iconUrls.size} icons")
+        target = Target(connection, fallbackColor, size)
+        startLoads()
+    }
+
+    fun cancel() {
+        queue.clear()
+    }
+
+    /**
+     * Called when a view starts loading an image it's going to show. Prefetching pauses until
+     * [onForegroundLoadFinished] is called.
+     */
+    fun onForegroundLoadStarted(url: HttpUrl) {
+        foregroundLoads++
+        queue.remove(url)
+    }
+
+    fun onForegroundLoadFinished() {
+        foregroundLoads--
+        startLoads()
+    }
+
+    private fun startLoads() {
+        val target = target ?: return
+        while (activeLoads < MAX_ACTIVE_LOADS && foregroundLoads == 0 && queue.isNotEmpty()) {
+            val url = queue.removeFirst()
+            activeLoads++
+            scope.launch {
+                try {
+                    load(url, target)
+                } finally {
+                    activeLoads--
+                    startLoads()
+                }
+            }
+        }
+    }
+
+    private suspend fun load(url: HttpUrl, target: Target) {
+        val cacheManager = CacheManager.getInstance(appContext)
+        if (cacheManager.isBitmapCached(url, target.fallbackColor)) {
+            return
+        }
+        val diskCachedBitmap = cacheManager.getIconFromDisk(url, target.fallbackColor, target.size)
+        val conversionPolicy = ImageConversionPolicy.PreferTargetSize
+        val bitmap = diskCachedBitmap
+            ?: cacheManager.renderCachedSvg(url, target.size, target.fallbackColor, conversionPolicy)
+            ?: try {
+                target.connection.httpClient
+                    .get(url.toString(), caching = HttpClient.CachingMode.FORCE_CACHE_IF_POSSIBLE)
+                    .asBitmap(target.size, target.fallbackColor, conversionPolicy, cacheManager)
+                    .response
+            } catch (e: HttpClient.HttpException) {
+                Log.d(TAG, "Failed to prefetch icon $url", e)
+                return
+            }
+        cacheManager.cacheBitmap(url, bitmap, target.fallbackColor)
+        if (diskCachedBitmap == null) {
+            cacheManager.saveIconToDisk(url, bitmap, target.fallbackColor, target.size)
+        }
+    }
+
+    private data class Target(val connection: Connection, @ColorInt val fallbackColor: Int, val size: Int)
+
+    companion object {
+        private val TAG = IconPrefetcher::class.java.simpleName
+        private const val MAX_ACTIVE_LOADS = 2
+
+        private var instance: IconPrefetcher? = null
+
+        fun getInstance(context: Context): IconPrefetcher {
+            val inst = instance ?: IconPrefetcher(context.applicationContext)
+            instance = inst
+            return inst
+        }
+    }
+}
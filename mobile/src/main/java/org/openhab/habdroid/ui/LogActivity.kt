@@ -13,6 +13,8 @@
 
 package org.openhab.habdroid.ui
 
+import android.app.ActivityManager
+import android.content.Context
 import android.content.Intent
 import android.os.Build
 import android.os.Bundle
@@ -35,6 +37,7 @@ import org.openhab.habdroid.R
 import org.openhab.habdroid.core.OpenHabApplication
 import org.openhab.habdroid.databinding.ActivityLogBinding
 import org.openhab.habdroid.model.ServerConfiguration
+import org.openhab.habdroid.util.CacheManager
 import org.openhab.habdroid.util.HttpClient
 import org.openhab.habdroid.util.determineDataUsagePolicy
 import org.openhab.habdroid.util.getConfiguredServerIds
@@ -245,6 +248,8 @@ class LogActivity :
 
     private fun getDeviceInfo(): String {
         val displayMetrics = resources.displayMetrics
+        val activityManager = getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
+        val cacheStatistics = CacheManager.getInstance(this).getStatistics()
         return "Model: ${Build.MODEL}\n" +
             "Manufacturer: ${Build.MANUFACTURER}\n" +
             "Brand: ${Build.BRAND}\n" +
@@ -255,7 +260,9 @@ class LogActivity :
             "${displayMetrics.density} density\n" +
             "Data usage policy: ${determineDataUsagePolicy()}, " +
             "data saver: ${(applicationContext as OpenHabApplication).systemDataSaverStatus}, " +
-            "battery saver: ${(applicationContext as OpenHabApplication).batterySaverActive}\n"
+            "battery saver: ${(applicationContext as OpenHabApplication).batterySaverActive}\n" +
+            "Memory class: ${activityManager.memoryClass} MB, low RAM device: ${activityManager.isLowRamDevice}\n" +
+            cacheStatistics.joinToString(separator = "\n", postfix = "\n") { stats -> "Cache $stats" }
     }
 
     companion object {
@@ -65,7 +65,6 @@ import androidx.drawerlayout.widget.DrawerLayout
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.lifecycleScope
 import androidx.lifecycle.repeatOnLifecycle
-import androidx.recyclerview.widget.RecyclerView
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.google.android.material.snackbar.Snackbar
 import de.duenndns.ssl.MemorizingTrustManager
@@ -78,7 +77,6 @@ import kotlin.time.Duration.Companion.seconds
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.Job
-import kotlinx.coroutines.channels.consumeEach
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.collectLatest
 import kotlinx.coroutines.launch
@@ -116,11 +114,12 @@ import org.openhab.habdroid.ui.homescreenwidget.VoiceWidgetWithIcon
 import org.openhab.habdroid.ui.preference.PreferencesActivity
 import org.openhab.habdroid.ui.preference.widgets.toItemUpdatePrefValue
 import org.openhab.habdroid.util.AsyncServiceResolver
+import org.openhab.habdroid.util.CacheManager
 import org.openhab.habdroid.util.CrashReportingHelper
 import org.openhab.habdroid.util.HttpClient
 import org.openhab.habdroid.util.IconBackground
 import org.openhab.habdroid.util.ImageConversionPolicy
-import org.openhab.habdroid.util.ItemClient
+import org.openhab.habdroid.util.ItemEventBus
 import org.openhab.habdroid.util.PendingIntent_Immutable
 import org.openhab.habdroid.util.PrefKeys
 import org.openhab.habdroid.util.ScreenLockMode
@@ -162,7 +161,7 @@ class MainActivity : AbstractBaseActivity() {
     private lateinit var drawerMenu: Menu
     private lateinit var drawerToggle: ActionBarDrawerToggle
     private var drawerIconTintList: ColorStateList? = null
-    lateinit var viewPool: RecyclerView.RecycledViewPool
+    lateinit var viewPool: WidgetAdapter.ViewPool
         private set
     private var sitemapSelectionDialog: AlertDialog? = null
     var connection: Connection? = null
@@ -241,7 +240,7 @@ class MainActivity : AbstractBaseActivity() {
 
         setupDrawer()
 
-        viewPool = RecyclerView.RecycledViewPool()
+        viewPool = WidgetAdapter.ViewPool()
 
         onBackPressedDispatcher.addCallback(this, onBackPressedCallback)
 
@@ -839,7 +838,14 @@ class MainActivity : AbstractBaseActivity() {
         propsRequestJob = launch {
             val conn = connection!!
             val result = withContext(Dispatchers.IO) {
-                ServerProperties.fetch(conn)
+                val propsResult = ServerProperties.fetch(conn)
+                if (propsResult is ServerProperties.Companion.PropsSuccess) {
+                    // Make sure icons rendered for a previous server version aren't shown
+                    val props = propsResult.props
+                    CacheManager.getInstance(this@MainActivity)
+                        .updateServerVersion(conn.httpClient.buildUrl("rest/"), "${props.runtimeVersion}/${props.flags}")
+                }
+                propsResult
             }
             when (result) {
                 is ServerProperties.Companion.PropsSuccess -> {
@@ -1256,7 +1262,8 @@ class MainActivity : AbstractBaseActivity() {
                     .asBitmap(
                         defaultIcon!!.intrinsicWidth,
                         getIconFallbackColor(IconBackground.APP_THEME),
-                        ImageConversionPolicy.ForceTargetSize
+                        ImageConversionPolicy.ForceTargetSize,
+                        CacheManager.getInstance(context)
                     )
                     .response
                     .toDrawable(resources)
@@ -1616,8 +1623,8 @@ class MainActivity : AbstractBaseActivity() {
     }
 
     private suspend fun listenUiCommandItem(item: String) {
-        ItemClient.listenForItemChange(this, connection ?: return, item)
-            .consumeEach { (_, state) ->
+        ItemEventBus.events(connection ?: return, item)
+            .collect { (_, state) ->
                 Log.d(TAG, "Got state by event: $state")
                 handleUiCommand(state, prefs.getActiveServerId())
             }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.ui
+
+import android.content.Context
+import android.util.Log
+import androidx.media3.exoplayer.DefaultLoadControl
+import androidx.media3.exoplayer.ExoPlayer
+import org.openhab.habdroid.R
+
+/**
+ * Shares video players between video widgets, as each player holds its own codecs, buffers and threads.
+ *
+ * Only a limited number of players is leased out at a time, further requests are served when a player is
+ * returned. Must only be used from the main thread.
+ */
+class VideoPlayerPool private constructor(private val appContext: Context) {
+    private val maxLeasedPlayers = appContext.resources.getInteger(R.integer.max_active_video_players)
+    private val idlePlayers = ArrayDeque<ExoPlayer>()
+    private val waitingClients = LinkedHashSet<Client>()
+    private var leasedPlayerCount = 0
+
+    interface Client {
+        /**
+         * Called when a player was leased to the client. It needs to be returned via [returnPlayer].
+         */
+        fun onPlayerAvailable(player: ExoPlayer)
+    }
+
+    /**
+     * Leases a player to the client, either immediately or as soon as one is returned by another client.
+     */
+    fun requestPlayer(client: Client) {
+        if (leasedPlayerCount < maxLeasedPlayers) {
+            leasedPlayerCount++
+            client.onPlayerAvailable(idlePlayers.removeFirstOrNull() ?: createPlayer())
+        } else {
+            Log.d(TAG, "All $maxLeasedPlayers players are in use, queueing request")
+            waitingClients.add(client)
+        }
+    }
+
+    fun cancelRequest(client: Client) {
+        waitingClients.remove(client)
+    }
+
+    fun returnPlayer(player: ExoPlayer) {
+        player.stop()
+        player.clearMediaItems()
+        val nextClient = waitingClients.firstOrNull()
+        if (nextClient != null) {
+            waitingClients.remove(nextClient)
+            nextClient.onPlayerAvailable(player)
+            return
+        }
+        leasedPlayerCount--
+        if (idlePlayers.size < MAX_IDLE_PLAYERS) {
+            idlePlayers.addLast(player)
+        } else {
+            player.release()
+        }
+    }
+
+    /**
+     * Releases all players that are currently not in use.
+     */
+    fun releaseIdlePlayers() {
+        idlePlayers.forEach { player -> player.release() }
+        idlePlayers.clear()
+    }
+
+    @androidx.media3.common.util.UnstableApi
+    private fun createPlayer(): ExoPlayer {
+        // Video widgets mostly show live camera streams, where low latency matters more than
+        // smooth playback over unreliable networks, so keep the buffers small
+        val loadControl = DefaultLoadControl.Builder()
+            .setBufferDurationsMs(
+                LIVE_MIN_BUFFER_MS,
+                LIVE_MAX_BUFFER_MS,
+                LIVE_BUFFER_FOR_PLAYBACK_MS,
+                LIVE_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS
+            )
+            .setPrioritizeTimeOverSizeThresholds(true)
+            .build()
+        return ExoPlayer.Builder(appContext)
+            .setLoadControl(loadControl)
+            .build()
+    }
+
+    companion object {
+        private val TAG = VideoPlayerPool::class.java.simpleName
+        private const val MAX_IDLE_PLAYERS = 1
+        private const val LIVE_MIN_BUFFER_MS = 2000
+        private const val LIVE_MAX_BUFFER_MS = 5000
+        private const val LIVE_BUFFER_FOR_PLAYBACK_MS = 500
+        private const val LIVE_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS = 1000
+
+        private var instance: VideoPlayerPool? = null
+
+        fun getInstance(context: Context): VideoPlayerPool {
+            val inst = instance ?: VideoPlayerPool(context.applicationContext)
+            instance = inst
+            return inst
+        }
+    }
+}
@@ -19,6 +19,7 @@ import android.content.Intent
 import android.content.SharedPreferences
 import android.content.res.ColorStateList
 import android.graphics.Color
+import android.os.Looper
 import android.text.InputType.TYPE_CLASS_NUMBER
 import android.text.InputType.TYPE_CLASS_TEXT
 import android.text.InputType.TYPE_NUMBER_FLAG_DECIMAL
@@ -59,7 +60,9 @@ import androidx.media3.exoplayer.analytics.AnalyticsListener
 import androidx.media3.exoplayer.hls.HlsMediaSource
 import androidx.media3.exoplayer.source.LoadEventInfo
 import androidx.media3.exoplayer.source.MediaLoadData
+import androidx.media3.exoplayer.source.MediaSource
 import androidx.media3.exoplayer.source.ProgressiveMediaSource
+import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView
 import com.google.android.material.button.MaterialButton
 import com.google.android.material.datepicker.MaterialDatePicker
@@ -73,6 +76,7 @@ import java.time.ZoneOffset
 import java.time.format.DateTimeFormatter
 import java.time.format.FormatStyle
 import java.time.temporal.ChronoUnit
+import java.util.BitSet
 import java.util.Locale
 import kotlin.math.min
 import kotlin.math.roundToInt
@@ -122,6 +126,7 @@ import org.openhab.habdroid.model.LabeledValue
 import org.openhab.habdroid.model.ParsedState
 import org.openhab.habdroid.model.ServerProperties
 import org.openhab.habdroid.model.Widget
+import org.openhab.habdroid.model.WidgetTree
 import org.openhab.habdroid.model.toColorTemperatureInKelvin
 import org.openhab.habdroid.model.withValue
 import org.openhab.habdroid.ui.widget.ContextMenuAwareRecyclerView
@@ -155,21 +160,22 @@ class WidgetAdapter(
     val connection: Connection,
     private val sourceId: String,
     private val itemClickListener: ItemClickListener,
-    private val fragmentPresenter: FragmentPresenter
+    private val fragmentPresenter: FragmentPresenter,
+    private val refreshScheduler: WidgetRefreshScheduler
 ) : RecyclerView.Adapter<WidgetAdapter.ViewHolder>(),
     View.OnClickListener {
-    private val items = mutableListOf<Widget>()
-    val itemList: List<Widget> get() = items
-    private val widgetsById = mutableMapOf<String, Widget>()
-    private val widgetsByParentId = mutableMapOf<String, MutableList<Widget>>()
+    private var tree = WidgetTree(emptyList())
+
+    // Single widget updates applied while a new widget list is diffed, which need to be applied to the new list
+    private var updatesDuringDiff: MutableMap<String, Widget>? = null
+    val itemList: List<Widget> get() = tree.widgets
     val hasVisibleWidgets: Boolean
-        get() = items.any { widget -> shouldShowWidget(widget) }
+        get() = tree.firstShownPosition >= 0
 
     private val inflater = LayoutInflater.from(context)
     private val chartTheme: CharSequence = context.getChartTheme(serverProperties.flags)
     private var compactMode = false
     private var selectedPosition = RecyclerView.NO_POSITION
-    private var firstVisibleWidgetPosition = RecyclerView.NO_POSITION
     private val colorMapper = ColorMapper(context)
 
     interface ItemClickListener {
@@ -182,40 +188,54 @@ class WidgetAdapter(
         fun showSelectionFragment(fragment: DialogFragment, widget: Widget)
     }
 
+    /**
+     * Replaces the widget list. Unless a full update is requested, the changes to the current list are
+     * determined in the background, so that only inserted, removed or changed rows are updated.
+     */
     @SuppressLint("NotifyDataSetChanged")
-    fun update(widgets: List<Widget>, forceFullUpdate: Boolean) {
-        val compatibleUpdate = !forceFullUpdate &&
-            widgets.size == items.size &&
-            widgets.filterIndexed { i, widget -> getItemViewType(widget) != getItemViewType(items[i]) }.isEmpty()
-
-        if (compatibleUpdate) {
-            widgets.forEachIndexed { index, widget ->
-                if (items[index] != widget) {
-                    updateWidgetAtPosition(index, widget)
-                }
+    suspend fun update(widgets: List<Widget>, forceFullUpdate: Boolean) {
+        if (forceFullUpdate || tree.size == 0) {
+            tree = WidgetTree(widgets)
+            notifyDataSetChanged()
+            return
+        }
+
+        val oldWidgets = tree.widgets.toList()
+        val compactMode = compactMode
+        val pendingUpdates = LinkedHashMap<String, Widget>()
+        updatesDuringDiff = pendingUpdates
+        try {
+            val (newTree, diff) = withContext(Dispatchers.Default) {
+                val oldTree = WidgetTree(oldWidgets)
+                val newTree = WidgetTree(widgets)
+                newTree to DiffUtil.calculateDiff(WidgetTreeDiffCallback(oldTree, newTree, compactMode))
             }
-        } else {
-            items.clear()
-            items.addAll(widgets)
-            widgetsById.clear()
-            widgetsByParentId.clear()
-            widgets.forEach { w ->
-                widgetsById[w.id] = w
-                w.parentId
-                    ?.let { parentId -> widgetsByParentId.getOrPut(parentId) { mutableListOf() } }
-                    ?.add(w)
+            updatesDuringDiff = null
+            tree = newTree
+            diff.dispatchUpdatesTo(this)
+            // Updates of single widgets received while diffing are newer than the list that was diffed
+            updateWidgets(pendingUpdates.values.toList())
+        } finally {
+            if (updatesDuringDiff === pendingUpdates) {
+                updatesDuringDiff = null
             }
-            notifyDataSetChanged()
         }
-        updateFirstVisibleWidgetPosition()
     }
 
-    fun updateWidget(widget: Widget) {
-        val pos = items.indexOfFirst { w -> w.id == widget.id }
-        if (pos >= 0) {
-            updateWidgetAtPosition(pos, widget)
-            updateFirstVisibleWidgetPosition()
+    fun updateWidgets(widgets: List<Widget>) {
+        val changedPositions = BitSet(tree.size)
+        val partiallyChangedPositions = HashMap<Int, Set<Widget.Change>>()
+        widgets.forEach { widget ->
+            updatesDuringDiff?.put(widget.id, widget)
+            val pos = tree.positionOf(widget.id)
+            if (pos >= 0) {
+                updateWidgetAtPosition(pos, widget, changedPositions, partiallyChangedPositions)
+            }
         }
+        notifyPositionsChanged(changedPositions)
+        partiallyChangedPositions
+            .filterKeys { position -> !changedPositions[position] }
+            .forEach { (position, changes) -> notifyItemChanged(position, changes) }
     }
 
     fun setCompactMode(compactMode: Boolean) {
@@ -240,7 +260,7 @@ class WidgetAdapter(
     }
 
     fun getItemForContextMenu(info: ContextMenuAwareRecyclerView.RecyclerContextMenuInfo): Widget? =
-        if (info.position < items.size) items[info.position] else null
+        if (info.position < tree.size) tree[info.position] else null
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
         val (actualViewType, compactMode) = fromInternalViewType(viewType)
@@ -281,7 +301,7 @@ class WidgetAdapter(
 
     override fun onBindViewHolder(holder: ViewHolder, position: Int) {
         val wasStarted = holder.stop()
-        val widget = items[position]
+        val widget = tree[position]
         holder.vhc = ViewHolderContext(
             connection,
             fragmentPresenter,
@@ -289,11 +309,12 @@ class WidgetAdapter(
             serverProperties,
             chartTheme,
             sourceId,
-            { widgetsByParentId[widget.id] }
+            refreshScheduler,
+            { tree.childrenOf(widget.id) }
         )
         holder.bind(widget)
         if (holder is AbstractFrameViewHolder) {
-            holder.setShownAsFirst(position == firstVisibleWidgetPosition)
+            holder.setShownAsFirst(position == tree.firstShownPosition)
         }
         with(holder.itemView) {
             isClickable = true
@@ -306,6 +327,13 @@ class WidgetAdapter(
         }
     }
 
+    override fun onBindViewHolder(holder: ViewHolder, position: Int, payloads: MutableList<Any>) {
+        // Payloads are only passed if all changes of the row can be applied by a partial bind
+        if (payloads.isEmpty() || !holder.bindChanges(tree[position])) {
+            onBindViewHolder(holder, position)
+        }
+    }
+
     override fun onViewAttachedToWindow(holder: ViewHolder) {
         super.onViewAttachedToWindow(holder)
         holder.attach()
@@ -321,73 +349,74 @@ class WidgetAdapter(
         holder.vhc = null
     }
 
-    override fun getItemCount(): Int = items.size
+    override fun getItemCount(): Int = tree.size
 
-    override fun getItemViewType(position: Int): Int = getItemViewType(items[position])
+    override fun getItemViewType(position: Int): Int = getItemViewType(tree, position)
 
     override fun onClick(view: View) {
         val holder = view.tag as ViewHolder
         val position = holder.bindingAdapterPosition
         if (position != RecyclerView.NO_POSITION) {
-            if (!itemClickListener.onItemClicked(items[position])) {
+            if (!itemClickListener.onItemClicked(tree[position])) {
                 holder.handleRowClick()
             }
         }
     }
 
-    @SuppressLint("NotifyDataSetChanged")
-    private fun updateWidgetAtPosition(position: Int, widget: Widget) {
-        val oldWidget = items[position]
-        items[position] = widget
-        widgetsById[widget.id] = widget
-        widgetsByParentId[oldWidget.parentId]?.remove(oldWidget)
-        widget.parentId
-            ?.let { parentId -> widgetsByParentId.getOrPut(parentId) { mutableListOf() } }
-            ?.add(widget)
-        // If visibility of a container with at least one child changes, refresh the whole list to make sure
-        // the child visibility is also updated. Otherwise it's sufficient to update the single widget only.
-        if (oldWidget.visibility != widget.visibility && items.any { w -> w.parentId == widget.id }) {
-            notifyDataSetChanged()
+    /**
+     * Replaces the widget at the given position and collects the positions that need to be rebound
+     * in [changedPositions], so that updates of multiple widgets can be notified at once.
+     * Positions whose holders can apply the changes without a full bind are collected in [partialChanges].
+     */
+    private fun updateWidgetAtPosition(
+        position: Int,
+        widget: Widget,
+        changedPositions: BitSet,
+        partialChanges: MutableMap<Int, Set<Widget.Change>>
+    ) {
+        val oldWidget = tree[position]
+        val wasShown = tree.isShown(position)
+        val oldFirstShownPosition = tree.firstShownPosition
+        // Visibility changes may affect the parent frame and the children of the widget,
+        // so also update all widgets whose shown state changed
+        tree.replace(position, widget).forEach { affectedPosition -> changedPositions.set(affectedPosition) }
+        if (oldFirstShownPosition != tree.firstShownPosition) {
+            listOf(oldFirstShownPosition, tree.firstShownPosition)
+                .filter { p -> p >= 0 }
+                .forEach { p -> changedPositions.set(p) }
+        }
+        // update the parent Buttongrid if the updated widget is a button
+        val parentPosition = tree.positionOf(widget.parentId)
+        if (widget.type == Widget.Type.Button && parentPosition >= 0) {
+            changedPositions.set(parentPosition)
+            return
+        }
+        val changes = Widget.changesBetween(oldWidget, widget)
+        val previousChanges = partialChanges[position]
+        if (changes != null && wasShown == tree.isShown(position)) {
+            partialChanges[position] = if (previousChanges != null) previousChanges + changes else changes
         } else {
-            // update the parent Buttongrid if the updated widget is a button
-            if (widget.type == Widget.Type.Button && widget.parentId != null) {
-                val parentPosition = items.indexOfFirst { w -> w.id == widget.parentId }
-                if (parentPosition >= 0) {
-                    notifyItemChanged(parentPosition)
-                }
-            } else {
-                notifyItemChanged(position)
-            }
+            changedPositions.set(position)
         }
     }
 
-    private fun updateFirstVisibleWidgetPosition() {
-        firstVisibleWidgetPosition = items.indexOfFirst { w -> shouldShowWidget(w) }
-    }
-
-    private tailrec fun shouldShowWidget(widget: Widget): Boolean {
-        if (!widget.visibility) {
-            return false
+    private fun notifyPositionsChanged(positions: BitSet) {
+        var start = positions.nextSetBit(0)
+        while (start >= 0) {
+            val end = positions.nextClearBit(start)
+            notifyItemRangeChanged(start, end - start)
+            start = positions.nextSetBit(end)
         }
-        if (widget.type == Widget.Type.Frame) {
-            val hasVisibleChildren = items
-                .filter { it.parentId == widget.id }
-                .any { it.visibility }
-            if (!hasVisibleChildren) {
-                return false
-            }
-        }
-        val parent = widget.parentId?.let { id -> widgetsById[id] } ?: return true
-        return shouldShowWidget(parent)
     }
 
-    private fun getItemViewType(widget: Widget): Int {
-        if (!shouldShowWidget(widget)) {
+    private fun getItemViewType(tree: WidgetTree, position: Int, compactMode: Boolean = this.compactMode): Int {
+        val widget = tree[position]
+        if (!tree.isShown(position)) {
             return toInternalViewType(TYPE_INVISIBLE, compactMode)
         }
         val actualViewType = when (widget.type) {
             Widget.Type.Frame -> when {
-                widgetsById[widget.parentId]?.type == Widget.Type.Frame -> TYPE_NESTED_FRAME
+                tree.getById(widget.parentId)?.type == Widget.Type.Frame -> TYPE_NESTED_FRAME
                 else -> TYPE_FRAME
             }
 
@@ -450,7 +479,8 @@ class WidgetAdapter(
         val serverProperties: ServerProperties,
         val chartTheme: CharSequence?,
         val sourceId: String,
-        val childWidgetGetter: () -> List<Widget>?
+        val refreshScheduler: WidgetRefreshScheduler,
+        val childWidgetGetter: () -> List<Widget>
     )
 
     abstract class ViewHolder internal constructor(
@@ -478,6 +508,36 @@ class WidgetAdapter(
             boundWidget = widget
         }
 
+        /**
+         * Updates the holder for a new version of the bound widget, touching only the views affected
+         * by the changes between both versions.
+         *
+         * @return true if the changes were applied, false if a full bind is needed
+         */
+        fun bindChanges(widget: Widget): Boolean {
+            val oldWidget = boundWidget
+            if (oldWidget == null || oldWidget.id != widget.id) {
+                return false
+            }
+            val changes = Widget.changesBetween(oldWidget, widget) ?: return false
+            // The visibility of a widget only affects the view type, which is the same for both versions
+            val remainingChanges = changes - Widget.Change.Visibility
+            if (remainingChanges.isNotEmpty() && !bindChangesImpl(oldWidget, widget, remainingChanges)) {
+                return false
+            }
+            updateRevertJob?.cancel()
+            boundWidget = widget
+            return true
+        }
+
+        /**
+         * Applies changes of the bound widget without a full bind.
+         *
+         * @param changes Changed aspects, never empty and never containing [Widget.Change.Visibility]
+         * @return true if the holder handled the changes, false if a full bind is needed
+         */
+        protected open fun bindChangesImpl(oldWidget: Widget, newWidget: Widget, changes: Set<Widget.Change>) = false
+
         fun start() {
             if (!started) {
                 onStart()
@@ -501,6 +561,7 @@ class WidgetAdapter(
 
         fun detach() {
             stop()
+            onDetach()
             scope?.cancel()
             scope = null
         }
@@ -509,6 +570,8 @@ class WidgetAdapter(
 
         open fun onStop() {}
 
+        open fun onDetach() {}
+
         open fun handleRowClick() {}
 
         protected fun requireHolderContext() = vhc ?: throw IllegalStateException("Holder not bound")
@@ -628,6 +691,8 @@ class WidgetAdapter(
         ViewHolder(initData, R.layout.widgetlist_invisibleitem) {
         override fun bindImpl(widget: Widget) {
         }
+
+        override fun bindChangesImpl(oldWidget: Widget, newWidget: Widget, changes: Set<Widget.Change>) = true
     }
 
     abstract class AbstractFrameViewHolder internal constructor(
@@ -702,6 +767,23 @@ class WidgetAdapter(
             isBinding = true
 
             binding.icontext.bindTo(widget, requireHolderContext())
+            bindToggleState(widget)
+            binding.toggle.isEnabled = !widget.readOnly
+
+            isBinding = false
+        }
+
+        override fun bindChangesImpl(oldWidget: Widget, newWidget: Widget, changes: Set<Widget.Change>): Boolean {
+            isBinding = true
+            binding.icontext.bindChanges(newWidget, changes, requireHolderContext())
+            if (Widget.Change.State in changes) {
+                bindToggleState(newWidget)
+            }
+            isBinding = false
+            return true
+        }
+
+        private fun bindToggleState(widget: Widget) {
             binding.toggle.apply {
                 isChecked = widget.item?.state?.asBoolean == true
                 thumbIconDrawable = if (widget.item?.state == null) {
@@ -710,9 +792,6 @@ class WidgetAdapter(
                     null
                 }
             }
-            binding.toggle.isEnabled = !widget.readOnly
-
-            isBinding = false
         }
 
         override fun handleRowClick() {
@@ -939,6 +1018,11 @@ class WidgetAdapter(
             binding.icontext.bindTo(widget, requireHolderContext())
             binding.rightArrow.isGone = widget.linkedPage == null
         }
+
+        override fun bindChangesImpl(oldWidget: Widget, newWidget: Widget, changes: Set<Widget.Change>): Boolean {
+            binding.icontext.bindChanges(newWidget, changes, requireHolderContext())
+            return true
+        }
     }
 
     class ButtongridViewHolder internal constructor(private val initData: ViewHolderInitData) :
@@ -965,7 +1049,7 @@ class WidgetAdapter(
                 isVisible = showLabelAndIcon
             }
 
-            val buttons = childWidgets.orEmpty() +
+            val buttons = childWidgets +
                 widget.mappings.mapIndexed { index, it -> it.toWidget("${widget.id}-mappings-$index", widget.item) }
 
             val rowCount = buttons.maxOfOrNull { it.row ?: 0 } ?: 0
@@ -1096,7 +1180,28 @@ class WidgetAdapter(
             }
             binding.value.bindAsWidgetValue(widget, requireHolderContext())
             binding.icon.bindAsWidgetIcon(widget, requireHolderContext())
+            bindSliderValue(widget)
+        }
 
+        override fun bindChangesImpl(oldWidget: Widget, newWidget: Widget, changes: Set<Widget.Change>): Boolean {
+            val vhc = requireHolderContext()
+            if (Widget.Change.Label in changes) {
+                binding.label.apply {
+                    bindAsWidgetLabel(newWidget, vhc)
+                    isGone = newWidget.label.isEmpty()
+                }
+            }
+            if (Widget.Change.State in changes) {
+                binding.value.bindAsWidgetValue(newWidget, vhc)
+                bindSliderValue(newWidget)
+            }
+            if (Widget.Change.Icon in changes) {
+                binding.icon.bindAsWidgetIcon(newWidget, vhc)
+            }
+            return true
+        }
+
+        private fun bindSliderValue(widget: Widget) {
             val hasValidValues = widget.minValue < widget.maxValue
             binding.seekbar.isVisible = hasValidValues
             binding.seekbar.isEnabled = !widget.readOnly
@@ -1174,6 +1279,7 @@ class WidgetAdapter(
         }
 
         override fun onStart() {
+            binding.image.refreshScheduler = requireHolderContext().refreshScheduler
             if (itemView.context.determineDataUsagePolicy(connection).canDoRefreshes) {
                 binding.image.startRefreshingIfNeeded()
             } else {
@@ -1212,7 +1318,18 @@ class WidgetAdapter(
 
         override fun bindImpl(widget: Widget) {
             binding.icontext.bindTo(widget, requireHolderContext())
+            bindSelectedLabel(widget)
+        }
+
+        override fun bindChangesImpl(oldWidget: Widget, newWidget: Widget, changes: Set<Widget.Change>): Boolean {
+            binding.icontext.bindChanges(newWidget, changes, requireHolderContext())
+            if (Widget.Change.State in changes) {
+                bindSelectedLabel(newWidget)
+            }
+            return true
+        }
 
+        private fun bindSelectedLabel(widget: Widget) {
             val stateString = widget.state?.asString
             val selectedLabel = widget.mappingsOrItemOptions.firstOrNull { mapping -> mapping.value == stateString }
             binding.icontext.value.apply {
@@ -1251,10 +1368,7 @@ class WidgetAdapter(
             binding.label.bindAsWidgetLabel(widget, requireHolderContext())
             binding.value.bindAsWidgetValue(widget, requireHolderContext())
             binding.icon.bindAsWidgetIcon(widget, requireHolderContext())
-
-            val hasNoLabelAndValue = binding.label.text.isEmpty() && binding.value.text.isEmpty()
-            binding.label.isGone = hasNoLabelAndValue
-            binding.value.isGone = hasNoLabelAndValue
+            updateLabelAndValueVisibility(widget)
 
             val mappings = widget.mappingsOrItemOptions
             val buttonCount = min(mappings.size, maxButtons)
@@ -1299,22 +1413,49 @@ class WidgetAdapter(
                     addView(overflowButton)
                 }
 
-                // check selected view
-                val state = widget.state?.asString
-                val checkedId = children
-                    .filter { it.id != R.id.overflow_button }
-                    .filter { (it.tag as LabeledValue).value == state }
-                    .map { it.id }
-                    .firstOrNull()
+                bindCheckedButton(widget)
+                isVisible = true
+            }
+        }
 
-                if (checkedId == null) {
-                    clearChecked()
-                } else {
-                    check(checkedId)
-                    binding.value.text = ""
-                }
+        override fun bindChangesImpl(oldWidget: Widget, newWidget: Widget, changes: Set<Widget.Change>): Boolean {
+            val vhc = requireHolderContext()
+            if (Widget.Change.Label in changes) {
+                binding.label.bindAsWidgetLabel(newWidget, vhc)
+            }
+            if (Widget.Change.State in changes) {
+                binding.value.bindAsWidgetValue(newWidget, vhc)
+            }
+            if (Widget.Change.Icon in changes) {
+                binding.icon.bindAsWidgetIcon(newWidget, vhc)
+            }
+            updateLabelAndValueVisibility(newWidget)
+            if (Widget.Change.State in changes) {
+                bindCheckedButton(newWidget)
+            }
+            return true
+        }
 
-                isVisible = true
+        // Depends on the widget instead of the views, as bindCheckedButton() clears the value view
+        private fun updateLabelAndValueVisibility(widget: Widget) {
+            val hasNoLabelAndValue = widget.label.isEmpty() && widget.stateFromLabel.isNullOrEmpty()
+            binding.label.isGone = hasNoLabelAndValue
+            binding.value.isGone = hasNoLabelAndValue
+        }
+
+        private fun bindCheckedButton(widget: Widget) {
+            val state = widget.state?.asString
+            val checkedId = binding.switchGroup.children
+                .filter { it.id != R.id.overflow_button }
+                .filter { (it.tag as LabeledValue).value == state }
+                .map { it.id }
+                .firstOrNull()
+
+            if (checkedId == null) {
+                binding.switchGroup.clearChecked()
+            } else {
+                binding.switchGroup.check(checkedId)
+                binding.value.text = ""
             }
         }
 
@@ -1387,6 +1528,17 @@ class WidgetAdapter(
             applyMapping(toggles[1], widget.mappingsOrItemOptions.getOrNull(1))
         }
 
+        override fun bindChangesImpl(oldWidget: Widget, newWidget: Widget, changes: Set<Widget.Change>): Boolean {
+            binding.icontext.bindChanges(newWidget, changes, requireHolderContext())
+            if (Widget.Change.State in changes) {
+                val state = newWidget.state?.asString
+                toggles
+                    .filter { t -> t.isVisible }
+                    .forEach { t -> t.isChecked = state == (t.tag as LabeledValue).value }
+            }
+            return true
+        }
+
         override fun onClick(view: View) {
             // Make sure one can't uncheck buttons by clicking a checked one
             (view as MaterialButton).isChecked = true
@@ -1443,6 +1595,11 @@ class WidgetAdapter(
             binding.icontext.bindTo(widget, requireHolderContext())
         }
 
+        override fun bindChangesImpl(oldWidget: Widget, newWidget: Widget, changes: Set<Widget.Change>): Boolean {
+            binding.icontext.bindChanges(newWidget, changes, requireHolderContext())
+            return true
+        }
+
         override fun onClick(view: View) {
             val buttonState = view.tag as UpDownButtonState
             val command = if (buttonState.inLongPress) "STOP" else buttonState.command
@@ -1518,6 +1675,11 @@ class WidgetAdapter(
             binding.downButton.isEnabled = !widget.readOnly
         }
 
+        override fun bindChangesImpl(oldWidget: Widget, newWidget: Widget, changes: Set<Widget.Change>): Boolean {
+            binding.icontext.bindChanges(newWidget, changes, requireHolderContext())
+            return true
+        }
+
         override fun handleRowClick() {
             openSelection()
         }
@@ -1582,6 +1744,7 @@ class WidgetAdapter(
         }
 
         override fun onStart() {
+            binding.chart.refreshScheduler = requireHolderContext().refreshScheduler
             if (itemView.context.determineDataUsagePolicy(connection).canDoRefreshes) {
                 binding.chart.startRefreshingIfNeeded()
             } else {
@@ -1607,16 +1770,23 @@ class WidgetAdapter(
         HeavyDataViewHolder(initData, R.layout.widgetlist_videoitem),
         AnalyticsListener,
         DataSource.Factory,
-        View.OnClickListener {
+        View.OnClickListener,
+        VideoPlayerPool.Client {
         private val binding = WidgetlistVideoitemBinding.bind(itemView)
         override val widgetContentView get() = binding.player
         override val dataSaverBinding get() = binding.dataSaver
         override val iconTextBinding get() = binding.icontext
 
-        private val exoPlayer = ExoPlayer.Builder(itemView.context).build()
+        private val playerPool = VideoPlayerPool.getInstance(itemView.context)
+
+        // Players are leased from the pool while the holder is started and returned once it's detached
+        private var exoPlayer: ExoPlayer? = null
+        private var mediaSource: MediaSource? = null
+
+        // Set before requesting a player, as the pool may hand one out right away
+        private var isStarted = false
 
         init {
-            binding.player.player = exoPlayer
             binding.videoPlayerErrorButton.setOnClickListener(this)
         }
 
@@ -1626,13 +1796,44 @@ class WidgetAdapter(
         }
 
         override fun onStart() {
-            if (itemView.context.determineDataUsagePolicy(connection).autoPlayVideos) {
-                exoPlayer.play()
+            isStarted = true
+            val player = exoPlayer
+            if (player == null) {
+                playerPool.requestPlayer(this)
+            } else if (itemView.context.determineDataUsagePolicy(connection).autoPlayVideos) {
+                player.play()
             }
         }
 
         override fun onStop() {
-            exoPlayer.pause()
+            isStarted = false
+            // Don't take a player that becomes available while stopped, onStart() requests it again
+            playerPool.cancelRequest(this)
+            exoPlayer?.pause()
+        }
+
+        @androidx.media3.common.util.UnstableApi
+        override fun onDetach() {
+            playerPool.cancelRequest(this)
+            val player = exoPlayer ?: return
+            player.removeAnalyticsListener(this)
+            binding.player.player = null
+            exoPlayer = null
+            playerPool.returnPlayer(player)
+        }
+
+        @androidx.media3.common.util.UnstableApi
+        override fun onPlayerAvailable(player: ExoPlayer) {
+            exoPlayer = player
+            binding.player.player = player
+            player.addAnalyticsListener(this)
+            mediaSource?.let { source ->
+                player.setMediaSource(source)
+                player.prepare()
+            }
+            if (isStarted && itemView.context.determineDataUsagePolicy(connection).autoPlayVideos) {
+                player.play()
+            }
         }
 
         @androidx.media3.common.util.UnstableApi
@@ -1662,21 +1863,23 @@ class WidgetAdapter(
 
             val mediaItem = url?.let { MediaItem.fromUri(it) }
             val mediaSource = mediaItem?.let { factory.createMediaSource(it) }
+            this.mediaSource = mediaSource
 
-            if (exoPlayer.currentMediaItem == mediaItem && !forceReload) {
-                exoPlayer.play()
+            // Without a player, the media source is set once a player was leased
+            val player = exoPlayer ?: return
+            if (player.currentMediaItem == mediaItem && !forceReload) {
+                player.play()
                 return
             }
 
-            exoPlayer.stop()
-            exoPlayer.clearMediaItems()
+            player.stop()
+            player.clearMediaItems()
             if (mediaSource == null) {
                 return
             }
 
-            exoPlayer.setMediaSource(mediaSource)
-            exoPlayer.prepare()
-            exoPlayer.addAnalyticsListener(this)
+            player.setMediaSource(mediaSource)
+            player.prepare()
         }
 
         @androidx.media3.common.util.UnstableApi
@@ -1794,7 +1997,21 @@ class WidgetAdapter(
             }
 
             binding.icontext.bindTo(widget, requireHolderContext())
+            bindSelectedColor(widget)
+            binding.buttons.selectColorButton.isEnabled = !widget.readOnly
+            binding.buttons.upButton.isEnabled = !widget.readOnly
+            binding.buttons.downButton.isEnabled = !widget.readOnly
+        }
+
+        override fun bindChangesImpl(oldWidget: Widget, newWidget: Widget, changes: Set<Widget.Change>): Boolean {
+            binding.icontext.bindChanges(newWidget, changes, requireHolderContext())
+            if (Widget.Change.State in changes) {
+                bindSelectedColor(newWidget)
+            }
+            return true
+        }
 
+        private fun bindSelectedColor(widget: Widget) {
             val hsv = widget.state?.asHsv
             val color = hsv?.toColor()
             binding.buttons.selectColorButton.apply {
@@ -1803,10 +2020,7 @@ class WidgetAdapter(
                 } else {
                     setImageDrawable(color.toColoredRoundedRect(context))
                 }
-                isEnabled = !widget.readOnly
             }
-            binding.buttons.upButton.isEnabled = !widget.readOnly
-            binding.buttons.downButton.isEnabled = !widget.readOnly
         }
 
         override fun onClick(view: View) {
@@ -1953,6 +2167,89 @@ class WidgetAdapter(
         }
     }
 
+    /**
+     * View holder pool shared by all widget lists of an activity, sized per view type.
+     */
+    class ViewPool : RecyclerView.RecycledViewPool() {
+        private var prefillScheduled = false
+
+        init {
+            MAX_RECYCLED_VIEWS.forEach { (viewType, max) ->
+                setMaxRecycledViews(toInternalViewType(viewType, false), max)
+                setMaxRecycledViews(toInternalViewType(viewType, true), max)
+            }
+        }
+
+        /**
+         * Inflates holders for the most common widget types while the main thread is idle,
+         * e.g. while waiting for the first page to be loaded. Only one holder is inflated per idle phase.
+         */
+        fun prefill(adapter: WidgetAdapter, parent: RecyclerView) {
+            if (prefillScheduled) {
+                return
+            }
+            prefillScheduled = true
+            val pendingViewTypes = ArrayDeque(
+                PREFILLED_VIEW_TYPES.flatMap { (viewType, count) -> List(count) { viewType } }
+            )
+            Looper.myQueue().addIdleHandler {
+                val viewType = pendingViewTypes.removeFirstOrNull()
+                if (viewType != null && prefillScheduled) {
+                    val internalViewType = toInternalViewType(viewType, adapter.compactMode)
+                    putRecycledView(adapter.createViewHolder(parent, internalViewType))
+                }
+                prefillScheduled && pendingViewTypes.isNotEmpty()
+            }
+        }
+
+        override fun clear() {
+            super.clear()
+            prefillScheduled = false
+        }
+    }
+
+    /**
+     * Compares widgets by ID. Rows are considered unchanged if the widget, its view type and whether it's
+     * shown as first widget are unchanged. Buttongrids are also compared by their buttons, as they display them.
+     */
+    private inner class WidgetTreeDiffCallback(
+        private val oldTree: WidgetTree,
+        private val newTree: WidgetTree,
+        private val compactMode: Boolean
+    ) : DiffUtil.Callback() {
+        private val oldViewTypes = IntArray(oldTree.size) { p -> getItemViewType(oldTree, p, compactMode) }
+        private val newViewTypes = IntArray(newTree.size) { p -> getItemViewType(newTree, p, compactMode) }
+
+        override fun getOldListSize() = oldTree.size
+
+        override fun getNewListSize() = newTree.size
+
+        override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int) =
+            oldTree[oldItemPosition].id == newTree[newItemPosition].id
+
+        override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int) =
+            oldTree[oldItemPosition] == newTree[newItemPosition] &&
+                hasSameRowState(oldItemPosition, newItemPosition)
+
+        override fun getChangePayload(oldItemPosition: Int, newItemPosition: Int): Any? {
+            if (!hasSameRowState(oldItemPosition, newItemPosition)) {
+                return null
+            }
+            return Widget.changesBetween(oldTree[oldItemPosition], newTree[newItemPosition])
+        }
+
+        private fun hasSameRowState(oldItemPosition: Int, newItemPosition: Int): Boolean {
+            val widget = newTree[newItemPosition]
+            val wasShownFirst = oldItemPosition == oldTree.firstShownPosition
+            val isShownFirst = newItemPosition == newTree.firstShownPosition
+            val hasSameButtons = widget.type != Widget.Type.Buttongrid ||
+                oldTree.childrenOf(widget.id) == newTree.childrenOf(widget.id)
+            return oldViewTypes[oldItemPosition] == newViewTypes[newItemPosition] &&
+                wasShownFirst == isShownFirst &&
+                hasSameButtons
+        }
+    }
+
     companion object {
         internal val TAG = WidgetAdapter::class.java.simpleName
 
@@ -1982,6 +2279,34 @@ class WidgetAdapter(
         private const val TYPE_BUTTONGRID = 23
         private const val TYPE_INVISIBLE = 24
 
+        // Rows that are usually shown many times per page are kept in larger numbers,
+        // while the heavy ones are only kept for a quick return to the previous page
+        private val MAX_RECYCLED_VIEWS = mapOf(
+            TYPE_GENERICITEM to 12,
+            TYPE_FRAME to 8,
+            TYPE_NESTED_FRAME to 4,
+            TYPE_GROUP to 8,
+            TYPE_SWITCH to 12,
+            TYPE_TEXT to 12,
+            TYPE_SLIDER to 8,
+            TYPE_IMAGE to 2,
+            TYPE_SECTIONSWITCH to 8,
+            TYPE_CHART to 2,
+            TYPE_VIDEO to 1,
+            TYPE_WEB to 1,
+            TYPE_VIDEO_MJPEG to 1,
+            TYPE_LOCATION to 1,
+            TYPE_INVISIBLE to 12
+        )
+        private val PREFILLED_VIEW_TYPES = mapOf(
+            TYPE_FRAME to 2,
+            TYPE_GENERICITEM to 3,
+            TYPE_TEXT to 3,
+            TYPE_SWITCH to 3,
+            TYPE_SLIDER to 2,
+            TYPE_GROUP to 2
+        )
+
         private fun toInternalViewType(viewType: Int, compactMode: Boolean): Int =
             viewType or (if (compactMode) 0x100 else 0)
 
@@ -2098,6 +2423,25 @@ fun WidgetlistIconvaluetextBinding.bindTo(widget: Widget, vhc: WidgetAdapter.Vie
     icon.bindAsWidgetIcon(widget, vhc)
 }
 
+/**
+ * Rebinds only the views affected by the given changes, see [WidgetAdapter.ViewHolder.bindChanges]
+ */
+fun WidgetlistIconvaluetextBinding.bindChanges(
+    widget: Widget,
+    changes: Set<Widget.Change>,
+    vhc: WidgetAdapter.ViewHolderContext
+) {
+    if (Widget.Change.Label in changes) {
+        label.bindAsWidgetLabel(widget, vhc)
+    }
+    if (Widget.Change.State in changes) {
+        value.bindAsWidgetValue(widget, vhc)
+    }
+    if (Widget.Change.Icon in changes) {
+        icon.bindAsWidgetIcon(widget, vhc)
+    }
+}
+
 fun WidgetlistIcontextBinding.bindTo(widget: Widget, vhc: WidgetAdapter.ViewHolderContext) {
     label.bindAsWidgetLabel(widget, vhc)
     icon.bindAsWidgetIcon(widget, vhc)
@@ -2124,10 +2468,17 @@ fun MaterialButton.setTextAndIcon(
     val iconSize = context.resources.getDimensionPixelSize(R.dimen.section_switch_icon)
     CoroutineScope(Dispatchers.IO + Job()).launch {
         val fallbackColor = context.getIconFallbackColor(IconBackground.APP_THEME)
+        val cacheManager = CacheManager.getInstance(context)
+        val conversionPolicy = ImageConversionPolicy.ForceTargetSize
         val drawable = try {
-            connection.httpClient.get(iconUrl, caching = HttpClient.CachingMode.DEFAULT)
-                .asBitmap(iconSize, fallbackColor, ImageConversionPolicy.ForceTargetSize).response
-                .toDrawable(resources)
+            val bitmap = cacheManager.renderCachedSvg(
+                connection.httpClient.buildUrl(iconUrl),
+                iconSize,
+                fallbackColor,
+                conversionPolicy
+            ) ?: connection.httpClient.get(iconUrl, caching = HttpClient.CachingMode.DEFAULT)
+                .asBitmap(iconSize, fallbackColor, conversionPolicy, cacheManager).response
+            bitmap.toDrawable(resources)
         } catch (e: HttpClient.HttpException) {
             Log.d(WidgetAdapter.TAG, "Error getting icon for button", e)
             null
@@ -47,10 +47,13 @@ import androidx.core.os.bundleOf
 import androidx.core.view.isVisible
 import androidx.fragment.app.DialogFragment
 import androidx.fragment.app.Fragment
+import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
 import androidx.recyclerview.widget.SimpleItemAnimator
 import com.google.android.material.snackbar.Snackbar
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.openhab.habdroid.R
@@ -59,6 +62,7 @@ import org.openhab.habdroid.core.connection.Connection
 import org.openhab.habdroid.databinding.FragmentWidgetlistBinding
 import org.openhab.habdroid.model.LinkedPage
 import org.openhab.habdroid.model.Widget
+import org.openhab.habdroid.model.WidgetListDiff
 import org.openhab.habdroid.ui.homescreenwidget.ItemUpdateWidget
 import org.openhab.habdroid.ui.widget.ContextMenuAwareRecyclerView
 import org.openhab.habdroid.util.CacheManager
@@ -69,6 +73,7 @@ import org.openhab.habdroid.util.PendingIntent_Mutable
 import org.openhab.habdroid.util.PrefKeys
 import org.openhab.habdroid.util.SuggestedCommandsFactory
 import org.openhab.habdroid.util.Util
+import org.openhab.habdroid.util.determineDataUsagePolicy
 import org.openhab.habdroid.util.dpToPixel
 import org.openhab.habdroid.util.getActiveServerId
 import org.openhab.habdroid.util.getIconFallbackColor
@@ -93,6 +98,8 @@ class WidgetListFragment :
     private lateinit var layoutManager: LinearLayoutManager
     private var adapter: WidgetAdapter? = null
     private var lastContextMenu: ContextMenu? = null
+    private var widgetUpdateJob: Job? = null
+    private var refreshScheduler: WidgetRefreshScheduler? = null
 
     @VisibleForTesting val recyclerView get() = binding.recyclerview
 
@@ -131,7 +138,11 @@ class WidgetListFragment :
 
         val activity = activity as MainActivity
         adapter = activity.connection?.let { conn ->
-            WidgetAdapter(activity, activity.serverProperties!!, conn, sourceId, this, this)
+            val refreshScheduler = WidgetRefreshScheduler(viewLifecycleOwner.lifecycleScope) {
+                activity.determineDataUsagePolicy(conn).canDoRefreshes
+            }
+            this.refreshScheduler = refreshScheduler
+            WidgetAdapter(activity, activity.serverProperties!!, conn, sourceId, this, this, refreshScheduler)
         }
 
         layoutManager = LinearLayoutManager(activity)
@@ -141,8 +152,16 @@ class WidgetListFragment :
             setRecycledViewPool(activity.viewPool)
             layoutManager = this@WidgetListFragment.layoutManager
             adapter = this@WidgetListFragment.adapter
+            this@WidgetListFragment.adapter?.let { adapter -> activity.viewPool.prefill(adapter, this) }
             (itemAnimator as SimpleItemAnimator).supportsChangeAnimations = false
             registerForContextMenu(this)
+            addOnScrollListener(object : RecyclerView.OnScrollListener() {
+                override fun onScrollStateChanged(recyclerView: RecyclerView, newState: Int) {
+                    if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                        refreshScheduler?.resumePostponedRefreshes()
+                    }
+                }
+            })
         }
 
         binding.swiperefresh.apply {
@@ -198,6 +217,7 @@ class WidgetListFragment :
                 holder.handleDataUsagePolicyChange()
             }
         }
+        refreshScheduler?.resumePostponedRefreshes()
         (activity as MainActivity?)?.showDataSaverHintSnackbarIfNeeded()
     }
 
@@ -492,15 +512,33 @@ class WidgetListFragment :
 
     fun updateWidgets(widgets: List<Widget>) {
         val adapter = adapter ?: return
-        adapter.update(widgets, binding.swiperefresh.isRefreshing)
-        updateUiState(adapter)
-        setHighlightedPageLink(highlightedPageLink)
+        val forceFullUpdate = binding.swiperefresh.isRefreshing
+        // A newer widget list supersedes the one currently being applied. The update touches views,
+        // so it's bound to the view lifecycle and cancelled when the view is destroyed.
+        widgetUpdateJob?.cancel()
+        widgetUpdateJob = viewLifecycleOwner.lifecycleScope.launch {
+            adapter.update(widgets, forceFullUpdate)
+            updateUiState(adapter)
+            setHighlightedPageLink(highlightedPageLink)
+            // The update might have moved images into view
+            refreshScheduler?.resumePostponedRefreshes()
+        }
         binding.swiperefresh.isRefreshing = false
     }
 
-    fun updateWidget(widget: Widget) {
+    fun applyWidgetChanges(widgets: List<Widget>, changes: WidgetListDiff) {
+        val adapter = adapter ?: return
+        if (binding.swiperefresh.isRefreshing || changes.hasStructuralChanges || adapter.itemCount != widgets.size) {
+            updateWidgets(widgets)
+        } else if (!changes.isEmpty) {
+            adapter.updateWidgets(changes.changed)
+            updateUiState(adapter)
+        }
+    }
+
+    fun applyWidgetUpdates(widgets: List<Widget>) {
         adapter?.let {
-            it.updateWidget(widget)
+            it.updateWidgets(widgets)
             updateUiState(it)
         }
     }
@@ -601,7 +639,12 @@ class WidgetListFragment :
                     )
                     connection.httpClient
                         .get(linkedPage.icon.toUrl(activity, true))
-                        .asBitmap(foregroundSize, iconFallbackColor, ImageConversionPolicy.ForceTargetSize)
+                        .asBitmap(
+                            foregroundSize,
+                            iconFallbackColor,
+                            ImageConversionPolicy.ForceTargetSize,
+                            CacheManager.getInstance(activity)
+                        )
                         .response
                 } catch (e: HttpClient.HttpException) {
                     null
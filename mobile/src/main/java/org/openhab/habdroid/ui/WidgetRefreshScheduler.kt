@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.ui
+
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+
+/**
+ * Refreshes the images of a widget list in shared ticks instead of using one timer per image, so
+ * images that are due at about the same time are downloaded together and the network is woken up
+ * less often.
+ *
+ * Refreshes of images that aren't visible, or that aren't allowed by the data usage policy, are
+ * postponed without waking up for them until [resumePostponedRefreshes] is called. Must only be used
+ * from the main thread.
+ */
+class WidgetRefreshScheduler(
+    private val scope: CoroutineScope,
+    private val canDoRefreshes: () -> Boolean
+) {
+    private val dueTimes = mutableMapOf<Client, Long>()
+    private val queuedClients = mutableSetOf<Client>()
+    private val postponedClients = mutableSetOf<Client>()
+    private val downloadSemaphore = Semaphore(MAX_CONCURRENT_REFRESHES)
+    private var tickJob: Job? = null
+    private var nextTickTimestamp = 0L
+
+    interface Client {
+        val refreshInterval: Long
+
+        fun isVisibleForRefresh(): Boolean
+
+        /**
+         * Starts reloading the image.
+         *
+         * @return Job that completes once the image was reloaded, or null if it couldn't be started
+         */
+        fun refresh(): Job?
+    }
+
+    /**
+     * Schedules a refresh of [client] at [dueTimestamp], which is based on [SystemClock.uptimeMillis].
+     * Replaces a refresh that was scheduled before.
+     */
+    fun schedule(client: Client, dueTimestamp: Long) {
+        queuedClients.remove(client)
+        postponedClients.remove(client)
+        dueTimes[client] = dueTimestamp
+        scheduleTick()
+    }
+
+    fun unschedule(client: Client) {
+        queuedClients.remove(client)
+        postponedClients.remove(client)
+        if (dueTimes.remove(client) != null) {
+            scheduleTick()
+        }
+    }
+
+    /**
+     * Makes postponed refreshes due again. Needs to be called when images might have become visible,
+     * e.g. after scrolling, or when the data usage policy changed.
+     */
+    fun resumePostponedRefreshes() {
+        if (postponedClients.isEmpty()) {
+            return
+        }
+        val now = SystemClock.uptimeMillis()
+        postponedClients.forEach { client -> dueTimes[client] = now }
+        postponedClients.clear()
+        scheduleTick()
+    }
+
+    private fun scheduleTick() {
+        val nextDueTimestamp = dueTimes.values.minOrNull()
+        if (nextDueTimestamp == null) {
+            tickJob?.cancel()
+            tickJob = null
+            return
+        }
+        if (tickJob?.isActive == true && nextTickTimestamp <= nextDueTimestamp) {
+            return
+        }
+        tickJob?.cancel()
+        nextTickTimestamp = nextDueTimestamp
+        tickJob = scope.launch {
+            delay(nextDueTimestamp - SystemClock.uptimeMillis())
+            tick()
+        }
+    }
+
+    private fun tick() {
+        val now = SystemClock.uptimeMillis()
+        val refreshesAllowed = canDoRefreshes()
+        // Refresh images that would be due soon together with the ones that are due now
+        val dueClients = dueTimes
+            .filter { (client, dueTimestamp) -> dueTimestamp - client.refreshInterval * EARLY_REFRESH_FRACTION <= now }
+            .keys
+        var postponed = 0
+        dueClients.forEach { client ->
+            if (refreshesAllowed && client.isVisibleForRefresh()) {
+                dueTimes.remove(client)
+                queuedClients.add(client)
+                scope.launch {
+                    downloadSemaphore.withPermit {
+                        // Skip refreshes that were cancelled or rescheduled while waiting for a download slot
+                        if (queuedClients.remove(client)) {
+                            client.refresh()?.join()
+                        }
+                    }
+                }
+            } else {
+                // Don't wake up for this client until it might be refreshed again
+                dueTimes.remove(client)
+                postponedClients.add(client)
+                postponed++
+            }
+        }
+        Log.d(TAG, "Refreshing ${dueClients.size - postponed} images, postponed $postponed")
+        tickJob = null
+        scheduleTick()
+    }
+
+    companion object {
+        private val TAG = WidgetRefreshScheduler::class.java.simpleName
+        private const val MAX_CONCURRENT_REFRESHES = 2
+        private const val EARLY_REFRESH_FRACTION = 0.2
+    }
+}
@@ -48,7 +48,9 @@ import org.openhab.habdroid.model.LinkedPage
 import org.openhab.habdroid.model.Sitemap
 import org.openhab.habdroid.model.WebViewUi
 import org.openhab.habdroid.model.Widget
+import org.openhab.habdroid.model.WidgetListDiff
 import org.openhab.habdroid.ui.CloudNotificationListFragment
+import org.openhab.habdroid.ui.IconPrefetcher
 import org.openhab.habdroid.ui.MainActivity
 import org.openhab.habdroid.ui.WidgetListFragment
 import org.openhab.habdroid.ui.activity.AbstractWebViewFragment.Companion.KEY_IS_STACK_ROOT
@@ -56,10 +58,13 @@ import org.openhab.habdroid.ui.activity.AbstractWebViewFragment.Companion.KEY_SU
 import org.openhab.habdroid.ui.preference.PreferencesActivity
 import org.openhab.habdroid.util.CrashReportingHelper
 import org.openhab.habdroid.util.HttpClient
+import org.openhab.habdroid.util.IconBackground
 import org.openhab.habdroid.util.PrefKeys
 import org.openhab.habdroid.util.buildBaseSourceId
+import org.openhab.habdroid.util.determineDataUsagePolicy
 import org.openhab.habdroid.util.getConnectionFactory
 import org.openhab.habdroid.util.getHumanReadableErrorMessage
+import org.openhab.habdroid.util.getIconFallbackColor
 import org.openhab.habdroid.util.getPrefs
 import org.openhab.habdroid.util.getWifiManager
 import org.openhab.habdroid.util.isDebugModeEnabled
@@ -374,6 +379,7 @@ abstract class ContentController protected constructor(private val activity: Mai
             progressMessage != null -> ProgressFragment.newInstance(progressMessage, icon)
             else -> LoadingSkeletonFragment.newInstance()
         }
+        IconPrefetcher.getInstance(activity).cancel()
         resetState()
         updateFragmentState(FragmentUpdateReason.PAGE_UPDATE)
         // Make sure dropped fragments are destroyed immediately to get their views recycled
@@ -488,6 +494,7 @@ abstract class ContentController protected constructor(private val activity: Mai
         val fragment = findWidgetFragmentForUrl(pageUrl)
         fragment?.updateTitle(pageTitle.orEmpty())
         fragment?.updateWidgets(widgets)
+        prefetchIcons(widgets)
         if (pendingDataLoadUrls.remove(pageUrl) && pendingDataLoadUrls.isEmpty()) {
             activity.setProgressIndicatorVisible(false)
             activity.updateTitle()
@@ -501,8 +508,35 @@ abstract class ContentController protected constructor(private val activity: Mai
         }
     }
 
-    override fun onWidgetUpdated(pageUrl: String, widget: Widget) {
-        findWidgetFragmentForUrl(pageUrl)?.updateWidget(widget)
+    private fun prefetchIcons(widgets: List<Widget>) {
+        val connection = activity.connection ?: return
+        val dataUsagePolicy = activity.determineDataUsagePolicy(connection)
+        if (!dataUsagePolicy.canDoLargeTransfers || !activity.getPrefs().getBoolean(PrefKeys.SHOW_ICONS, true)) {
+            return
+        }
+        val iconUrls = widgets
+            .filter { widget -> widget.visibility }
+            .mapNotNull { widget -> widget.icon?.toUrl(activity, dataUsagePolicy.loadIconsWithState) }
+        IconPrefetcher.getInstance(activity).prefetch(
+            connection,
+            iconUrls,
+            activity.getIconFallbackColor(IconBackground.APP_THEME),
+            activity.resources.getDimensionPixelSize(R.dimen.widgetlist_icon_size)
+        )
+    }
+
+    override fun onPageChanged(pageUrl: String, pageTitle: String?, widgets: List<Widget>, changes: WidgetListDiff) {
+        if (pageUrl in pendingDataLoadUrls) {
+            onPageUpdated(pageUrl, pageTitle, widgets)
+            return
+        }
+        val fragment = findWidgetFragmentForUrl(pageUrl) ?: return
+        fragment.updateTitle(pageTitle.orEmpty())
+        fragment.applyWidgetChanges(widgets, changes)
+    }
+
+    override fun onWidgetsUpdated(pageUrl: String, widgets: List<Widget>) {
+        findWidgetFragmentForUrl(pageUrl)?.applyWidgetUpdates(widgets)
     }
 
     override fun onPageTitleUpdated(pageUrl: String, title: String) {
@@ -14,32 +14,37 @@
 package org.openhab.habdroid.ui.activity
 
 import android.os.Bundle
+import android.util.JsonReader
 import android.util.Log
+import android.util.MalformedJsonException
+import android.view.Choreographer
 import androidx.core.net.toUri
 import androidx.fragment.app.Fragment
-import java.io.IOException
-import java.io.StringReader
+import java.io.EOFException
 import java.util.HashMap
-import javax.xml.parsers.DocumentBuilderFactory
-import javax.xml.parsers.ParserConfigurationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Job
-import kotlinx.coroutines.isActive
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancelChildren
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
 import okhttp3.Headers
-import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import org.json.JSONException
 import org.json.JSONObject
 import org.openhab.habdroid.core.connection.Connection
 import org.openhab.habdroid.model.ServerProperties
 import org.openhab.habdroid.model.Widget
 import org.openhab.habdroid.model.WidgetDataSource
+import org.openhab.habdroid.model.WidgetListDiff
 import org.openhab.habdroid.ui.WidgetListFragment
 import org.openhab.habdroid.util.HttpClient
 import org.openhab.habdroid.util.appendQueryParameter
-import org.xml.sax.InputSource
-import org.xml.sax.SAXException
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserException
 
 /**
  * Fragment that manages connections for active instances of
@@ -54,6 +59,7 @@ class PageConnectionHolderFragment :
     private val job = Job()
     override val coroutineContext get() = Dispatchers.Main + job
     private val connections = HashMap<String, ConnectionHandler>()
+    private val eventSubscriptions = HashMap<String, SitemapEventSubscription>()
     private lateinit var callback: ParentCallback
     private var started: Boolean = false
 
@@ -82,12 +88,23 @@ class PageConnectionHolderFragment :
         fun onPageUpdated(pageUrl: String, pageTitle: String?, widgets: List<Widget>)
 
         /**
-         * Let parent know about an update to the contents of a single widget.
+         * Let parent know about changes to the widget list of a page that was delivered before.
          *
-         * @param pageUrl URL of the page the updated widget belongs to
-         * @param widget Updated widget
+         * @param pageUrl URL of the updated page
+         * @param pageTitle Updated page title
+         * @param widgets Updated list of widgets for the given page
+         * @param changes Changes compared to the previously delivered widget list
+         */
+        fun onPageChanged(pageUrl: String, pageTitle: String?, widgets: List<Widget>, changes: WidgetListDiff)
+
+        /**
+         * Let parent know about updates to the contents of single widgets.
+         * Updates arriving within the same display frame are delivered together.
+         *
+         * @param pageUrl URL of the page the updated widgets belong to
+         * @param widgets Updated widgets, at most one per widget ID
          */
-        fun onWidgetUpdated(pageUrl: String, widget: Widget)
+        fun onWidgetsUpdated(pageUrl: String, widgets: List<Widget>)
 
         /**
          * Let parent know about an update to the page title
@@ -167,6 +184,8 @@ class PageConnectionHolderFragment :
         if (connection == null) {
             connections.values.forEach { handler -> handler.cancel() }
             connections.clear()
+            eventSubscriptions.values.forEach { subscription -> subscription.shutdown() }
+            eventSubscriptions.clear()
             return
         }
 
@@ -176,7 +195,7 @@ class PageConnectionHolderFragment :
             var handler = connections[url]
             if (handler == null) {
                 Log.d(TAG, "Creating new handler for URL $url")
-                handler = ConnectionHandler(this, url, connection, callback)
+                handler = ConnectionHandler(this, url, connection, callback, this::getEventSubscription)
                 connections[url] = handler
                 if (started) {
                     handler.load()
@@ -198,11 +217,22 @@ class PageConnectionHolderFragment :
         connections[pageUrl]?.triggerUpdate(forceReload)
     }
 
+    private fun getEventSubscription(client: HttpClient, sitemap: String): SitemapEventSubscription {
+        val existing = eventSubscriptions[sitemap]
+        if (existing?.client == client) {
+            return existing
+        }
+        existing?.shutdown()
+        Log.d(TAG, "Creating new event subscription for sitemap $sitemap")
+        return SitemapEventSubscription(this, client, sitemap).also { eventSubscriptions[sitemap] = it }
+    }
+
     private class ConnectionHandler(
         private val scope: CoroutineScope,
         private val url: String,
         connection: Connection,
-        var callback: ParentCallback
+        var callback: ParentCallback,
+        private val eventSubscriptionProvider: (client: HttpClient, sitemap: String) -> SitemapEventSubscription
     ) {
         private var httpClient: HttpClient = connection.httpClient
         private var requestJob: Job? = null
@@ -210,23 +240,27 @@ class PageConnectionHolderFragment :
         private var atmosphereTrackingId: String? = null
         private var lastPageTitle: String? = null
         private var lastWidgetList: MutableList<Widget>? = null
-        private var eventHelper: EventHelper? = null
+        private var lastWidgetPositions: Map<String, Int> = emptyMap()
+        private var sitemap: String? = null
+        private var pageId: String? = null
+        private var eventSubscription: SitemapEventSubscription? = null
+        private val eventJob = SupervisorJob(scope.coroutineContext[Job])
+
+        // Serializes page loads and event processing, as both work on lastWidgetList
+        private val pageUpdateLock = Mutex()
+        private val useEvents get() = sitemap != null
+
+        // Widget updates from events waiting to be delivered with the next display frame, by widget ID
+        private val pendingWidgetUpdates = LinkedHashMap<String, Widget>()
+        private val widgetUpdateFrameCallback = Choreographer.FrameCallback { deliverPendingWidgetUpdates() }
 
         init {
             if (callback.serverProperties?.hasSseSupport() == true) {
                 val segments = httpClient.buildUrl(url).pathSegments
                 if (segments.size > 2) {
-                    val sitemap = segments[segments.size - 2]
-                    val pageId = segments[segments.size - 1]
-                    Log.d(TAG, "Creating new SSE helper for sitemap $sitemap, page $pageId")
-                    eventHelper = EventHelper(
-                        scope,
-                        httpClient,
-                        sitemap,
-                        pageId,
-                        this::handleUpdateEvent,
-                        this::handleSseSubscriptionFailure
-                    )
+                    sitemap = segments[segments.size - 2]
+                    pageId = segments[segments.size - 1]
+                    Log.d(TAG, "Using SSE for sitemap $sitemap, page $pageId")
                 }
             }
         }
@@ -241,7 +275,9 @@ class PageConnectionHolderFragment :
             Log.d(TAG, "Canceling connection for URL $url")
             requestJob?.cancel()
             requestJob = null
-            eventHelper?.shutdown()
+            eventJob.cancelChildren()
+            discardPendingWidgetUpdates()
+            disconnectEvents()
             longPolling = false
         }
 
@@ -259,7 +295,7 @@ class PageConnectionHolderFragment :
         }
 
         fun load() {
-            if (eventHelper != null && longPolling) {
+            if (useEvents && longPolling) {
                 // We update via events
                 return
             }
@@ -287,10 +323,26 @@ class PageConnectionHolderFragment :
                 .appendQueryParameter("includeHidden", true)
                 .toString()
 
+            val useJson = callback.serverProperties?.hasJsonApi() == true
+            val wasLongPolling = longPolling
             requestJob = scope.launch {
                 try {
-                    val response = httpClient.get(requestUrl, headers, timeoutMillis).asText()
-                    handleResponse(response.response, response.headers)
+                    val dataSource = WidgetDataSource()
+                    val result = httpClient.get(requestUrl, headers, timeoutMillis)
+                    // Decode the page while it's received, so it never needs to be held in memory as a whole.
+                    // Decoding happens on the parse dispatcher, which therefore also waits for the rest of
+                    // the page once its start arrived. Being bounded, this doesn't starve other work.
+                    if (useJson) {
+                        val response = result.asJsonStream(PARSE_DISPATCHER) { reader ->
+                            parseResponseJson(dataSource, reader, wasLongPolling)
+                        }
+                        handleResponse(dataSource, response.response, response.headers)
+                    } else {
+                        val response = result.asXmlStream(PARSE_DISPATCHER) { parser ->
+                            parseResponseXml(dataSource, parser)
+                        }
+                        handleResponse(dataSource, response.response, response.headers)
+                    }
                 } catch (e: HttpClient.HttpException) {
                     Log.d(TAG, "Data load for $url failed", e)
                     atmosphereTrackingId = null
@@ -298,10 +350,33 @@ class PageConnectionHolderFragment :
                     callback.onLoadFailure(e)
                 }
             }
-            eventHelper?.connect()
+            connectEvents()
+        }
+
+        private fun connectEvents() {
+            val sitemap = sitemap ?: return
+            val pageId = pageId ?: return
+            val subscription = eventSubscriptionProvider(httpClient, sitemap)
+            if (subscription != eventSubscription) {
+                disconnectEvents()
+            }
+            eventSubscription = subscription
+            subscription.attach(
+                pageId,
+                SitemapEventSubscription.Listener(this::handleUpdateEvent, this::handleSseUnsupported)
+            )
         }
 
-        private fun handleResponse(response: String, headers: Headers) {
+        private fun disconnectEvents() {
+            val pageId = pageId ?: return
+            eventSubscription?.detach(pageId)
+            eventSubscription = null
+        }
+
+        /**
+         * @param parseResult Result of parsing the response into [dataSource], or null if the response was empty
+         */
+        private suspend fun handleResponse(dataSource: WidgetDataSource, parseResult: ParseResult?, headers: Headers) {
             val id = headers["X-Atmosphere-tracking-id"]
             if (id != null) {
                 atmosphereTrackingId = id
@@ -309,228 +384,268 @@ class PageConnectionHolderFragment :
 
             // We can receive empty response, probably when no items was changed
             // so we needn't process it
-            if (response.isEmpty()) {
+            if (parseResult == null) {
                 Log.d(TAG, "Got empty data response for $url")
                 longPolling = true
                 load()
                 return
             }
 
-            val dataSource = WidgetDataSource()
-            val hasUpdate = if (callback.serverProperties?.hasJsonApi() == true) {
-                parseResponseJson(dataSource, response)
-            } else {
-                parseResponseXml(dataSource, response)
+            val detailedLogging = callback.isDetailedLoggingEnabled
+
+            when (parseResult) {
+                ParseResult.Success -> longPolling = true
+                ParseResult.Failure -> longPolling = false
+                ParseResult.Timeout -> {}
             }
 
-            if (hasUpdate) {
-                // Remove frame widgets with no label text
-                val widgetList = dataSource.widgets
-                Log.d(TAG, "Updated page data for URL $url (${widgetList.size} widgets)")
-                if (callback.isDetailedLoggingEnabled) {
-                    widgetList.forEachIndexed { index, widget ->
-                        Log.d(TAG, "Widget ${index + 1}: $widget")
+            if (parseResult == ParseResult.Success) {
+                pageUpdateLock.withLock {
+                    val previousWidgetList = lastWidgetList
+                    // Diffing can take a while for large pages, so keep it away from the main thread.
+                    // If this load was superseded in the meantime, withContext() throws and nothing is delivered.
+                    val update = withContext(PARSE_DISPATCHER) {
+                        createPageUpdate(dataSource, previousWidgetList, detailedLogging)
+                    }
+
+                    lastPageTitle = update.title
+                    lastWidgetList = update.widgets.toMutableList()
+                    lastWidgetPositions = update.positions
+                    // The new widget list already contains all updates from events
+                    discardPendingWidgetUpdates()
+                    if (update.changes == null) {
+                        callback.onPageUpdated(url, update.title, update.widgets)
+                    } else {
+                        callback.onPageChanged(url, update.title, update.widgets, update.changes)
                     }
                 }
-                lastPageTitle = dataSource.title
-                lastWidgetList = widgetList.toMutableList()
-                callback.onPageUpdated(url, lastPageTitle, widgetList)
             }
 
             load()
         }
 
-        private fun parseResponseXml(dataSource: WidgetDataSource, response: String): Boolean {
-            val dbf = DocumentBuilderFactory.newInstance()
-            try {
-                val builder = dbf.newDocumentBuilder()
-                val document = builder.parse(InputSource(StringReader(response)))
-                if (document == null) {
-                    Log.d(TAG, "Got empty XML document for $url")
-                    longPolling = false
-                    return false
+        private fun createPageUpdate(
+            dataSource: WidgetDataSource,
+            previousWidgetList: List<Widget>?,
+            detailedLogging: Boolean
+        ): PageUpdate {
+            // Remove frame widgets with no label text
+            val widgetList = dataSource.widgets
+            Log.d(TAG, "Updated page data for URL $url (${widgetList.size} widgets)")
+            if (detailedLogging) {
+                widgetList.forEachIndexed { index, widget ->
+                    Log.d(TAG, "Widget ${index + 1}: $widget")
                 }
-                val rootNode = document.firstChild
-                dataSource.setSourceNode(rootNode)
-                longPolling = true
-                return true
-            } catch (e: ParserConfigurationException) {
-                Log.d(TAG, "Parsing data for $url failed", e)
-                longPolling = false
-                return false
-            } catch (e: SAXException) {
-                Log.d(TAG, "Parsing data for $url failed", e)
-                longPolling = false
-                return false
-            } catch (e: IOException) {
+            }
+            val changes = previousWidgetList?.let { WidgetListDiff.compute(it, widgetList) }
+            if (changes != null) {
+                Log.d(
+                    TAG,
+                    "Page changes for URL $url: ${changes.inserted.size} inserted, " +
+                        "${changes.removed.size} removed, ${changes.moved.size} moved, " +
+                        "${changes.changed.size} changed"
+                )
+            }
+            val positions = HashMap<String, Int>(widgetList.size)
+            widgetList.forEachIndexed { index, widget -> positions[widget.id] = index }
+            return PageUpdate(dataSource.title, widgetList, positions, changes)
+        }
+
+        private fun parseResponseXml(dataSource: WidgetDataSource, parser: XmlPullParser): ParseResult {
+            try {
+                parser.nextTag()
+                dataSource.setSourceXml(parser)
+                return ParseResult.Success
+            } catch (e: XmlPullParserException) {
                 Log.d(TAG, "Parsing data for $url failed", e)
-                longPolling = false
-                return false
+                return ParseResult.Failure
             }
         }
 
-        private fun parseResponseJson(dataSource: WidgetDataSource, response: String): Boolean {
+        private fun parseResponseJson(
+            dataSource: WidgetDataSource,
+            reader: JsonReader,
+            wasLongPolling: Boolean
+        ): ParseResult {
             try {
-                val pageJson = JSONObject(response)
+                dataSource.setSourceJson(reader)
                 // In case of a server timeout in the long polling request, nothing is done
                 // and the request is restarted
-                if (longPolling && pageJson.optBoolean("timeout", false)) {
+                if (wasLongPolling && dataSource.isTimeout) {
                     Log.d(TAG, "Long polling timeout for $url")
-                    return false
+                    return ParseResult.Timeout
                 }
-                dataSource.setSourceJson(pageJson)
-                longPolling = true
-                return true
+                return ParseResult.Success
+            } catch (e: MalformedJsonException) {
+                Log.d(TAG, "Parsing data for $url failed", e)
+                return ParseResult.Failure
+            } catch (e: EOFException) {
+                // Thrown by JsonReader if the data is incomplete
+                Log.d(TAG, "Parsing data for $url failed", e)
+                return ParseResult.Failure
+            } catch (e: IllegalStateException) {
+                // Thrown by JsonReader if the data doesn't have the expected structure
+                Log.d(TAG, "Parsing data for $url failed", e)
+                return ParseResult.Failure
             } catch (e: JSONException) {
                 Log.d(TAG, "Parsing data for $url failed", e)
-                longPolling = false
-                return false
+                return ParseResult.Failure
             }
         }
 
-        fun handleUpdateEvent(pageId: String, payload: String) {
-            try {
-                val jsonObject = JSONObject(payload)
-
-                when (jsonObject.optString("TYPE")) {
-                    "SITEMAP_CHANGED" -> {
-                        val sitemap = jsonObject.optString("sitemapName")
-                        val page = jsonObject.optString("pageId")
-                        Log.d(TAG, "Got SITEMAP_CHANGED event for $sitemap/$page, self $pageId, reload sitemap")
-                        cancel()
-                        load()
-                        return
+        fun handleUpdateEvent(pageId: String, jsonObject: JSONObject) {
+            when (jsonObject.optString("TYPE")) {
+                "SITEMAP_CHANGED" -> {
+                    val sitemap = jsonObject.optString("sitemapName")
+                    val page = jsonObject.optString("pageId")
+                    Log.d(TAG, "Got SITEMAP_CHANGED event for $sitemap/$page, self $pageId, reload sitemap")
+                    cancel()
+                    load()
+                    return
+                }
+
+                "ALIVE" -> {
+                    // We ignore 'server alive' events
+                    Log.d(TAG, "Got ALIVE event")
+                    return
+                }
+            }
+
+            val fullVisibilitySupport = callback.serverProperties?.hasInvisibleWidgetSupport() == true
+            // Events are processed in order of arrival, as each of them builds upon the result of the previous one
+            scope.launch(eventJob) {
+                pageUpdateLock.withLock {
+                    val widgetList = lastWidgetList
+                    val positions = lastWidgetPositions
+                    val update = withContext(PARSE_DISPATCHER) {
+                        parseUpdateEvent(pageId, jsonObject, widgetList, positions, fullVisibilitySupport)
                     }
+                    when (update) {
+                        is EventUpdate.Title -> {
+                            lastPageTitle = update.title
+                            callback.onPageTitleUpdated(url, update.title)
+                        }
+
+                        is EventUpdate.WidgetChange -> {
+                            widgetList?.set(update.position, update.widget)
+                            scheduleWidgetUpdate(update.widget)
+                        }
 
-                    "ALIVE" -> {
-                        // We ignore 'server alive' events
-                        Log.d(TAG, "Got ALIVE event")
-                        return
+                        is EventUpdate.Reload -> {
+                            cancel()
+                            load()
+                        }
+
+                        is EventUpdate.None -> {}
                     }
                 }
+            }
+        }
 
+        private fun parseUpdateEvent(
+            pageId: String,
+            jsonObject: JSONObject,
+            widgetList: List<Widget>?,
+            positions: Map<String, Int>,
+            fullVisibilitySupport: Boolean
+        ): EventUpdate {
+            try {
                 val widgetId = jsonObject.getString("widgetId")
                 if (widgetId == pageId) {
-                    val title = jsonObject.getString("label")
-                    lastPageTitle = title
-                    callback.onPageTitleUpdated(url, title)
-                    return
+                    return EventUpdate.Title(jsonObject.getString("label"))
                 }
 
                 val visibility = jsonObject.optBoolean("visibility", true)
-                val widget = lastWidgetList?.firstOrNull { w -> w.id == widgetId }
+                val position = positions[widgetId] ?: -1
 
-                if (widget != null) {
+                if (widgetList != null && position >= 0) {
+                    val widget = widgetList[position]
                     // Fast path:
                     // If the server supports full visibility handling, or visibility didn't change, update the widget.
                     // If this event is for a visibility change on an older server, the sent data might be off
                     // (includes item/state of the trigger item instead of the widget item), so we can't use it.
-                    if (callback.serverProperties?.hasInvisibleWidgetSupport() == true ||
-                        visibility == widget.visibility
-                    ) {
-                        val updatedWidget = Widget.updateFromEvent(widget, jsonObject)
-                        lastWidgetList?.let { it[it.indexOf(widget)] = updatedWidget }
-                        callback.onWidgetUpdated(url, updatedWidget)
-                        return
+                    if (fullVisibilitySupport || visibility == widget.visibility) {
+                        return EventUpdate.WidgetChange(position, Widget.updateFromEvent(widget, jsonObject))
                     }
-                } else if (lastWidgetList != null) {
+                } else if (widgetList != null) {
                     // Either we didn't find the widget (possibly because the server didn't give us invisible widgets),
                     // or we couldn't update it because we couldn't trust the data, so reload the page.
                     // If we didn't have a widget list yet, simply ignore the event - we probably got it while loading the list,
                     // and if we have no list it's expected to be unable to find the widget.
-                    cancel()
-                    load()
+                    return EventUpdate.Reload
                 }
             } catch (e: JSONException) {
-                Log.w(TAG, "Could not parse SSE event ('$payload')", e)
+                Log.w(TAG, "Could not parse SSE event ('$jsonObject')", e)
             }
+            return EventUpdate.None
         }
 
-        private fun handleSseSubscriptionFailure(sseUnsupported: Boolean) {
-            if (sseUnsupported) {
-                Log.w(TAG, "SSE unsupported for $url, using long polling")
-                callback.onSseFailure()
-                eventHelper = null
-                if (longPolling) {
-                    load()
-                }
-            } else {
-                Log.w(TAG, "SSE processing failed for $url, retrying")
-                eventHelper?.connect()
+        /**
+         * Queues a widget update for delivery with the next display frame. When events arrive faster than
+         * the UI can draw them, this merges all updates of a frame into a single adapter update,
+         * and only the latest state of each widget is delivered.
+         */
+        private fun scheduleWidgetUpdate(widget: Widget) {
+            if (pendingWidgetUpdates.isEmpty()) {
+                Choreographer.getInstance().postFrameCallback(widgetUpdateFrameCallback)
             }
+            pendingWidgetUpdates[widget.id] = widget
         }
 
-        private class EventHelper internal constructor(
-            private val scope: CoroutineScope,
-            private val client: HttpClient,
-            private val sitemap: String,
-            private val pageId: String,
-            private val updateCb: (pageId: String, message: String) -> Unit,
-            private val failureCb: (sseUnsupported: Boolean) -> Unit
-        ) {
-            private var subscribeJob: Job? = null
-
-            fun connect() {
-                shutdown()
-
-                subscribeJob = scope.launch {
-                    try {
-                        val response = client.post(
-                            "/rest/sitemaps/events/subscribe",
-                            "{}",
-                            "application/json"
-                        ).asText()
-                        val result = JSONObject(response.response)
-                        val status = result.getString("status")
-                        if (status != "CREATED") {
-                            throw JSONException("Unexpected status $status")
-                        }
-                        val headerObject = result.getJSONObject("context").getJSONObject("headers")
-                        val url = headerObject.getJSONArray("Location").getString(0).toHttpUrlOrNull()
-                        if (url != null) {
-                            val u = url.newBuilder()
-                                .addQueryParameter("sitemap", sitemap)
-                                .addQueryParameter("pageid", pageId)
-                                .build()
-                            val subscription = client.makeSse(u)
-                            try {
-                                while (isActive) {
-                                    val data = subscription.getNextEvent()
-                                    updateCb(pageId, data)
-                                }
-                            } catch (e: HttpClient.SseFailureException) {
-                                if (isActive) {
-                                    val statusCode = e.response?.code ?: 0
-                                    val cause = e.cause?.message
-                                    Log.w(TAG, "SSE stream failed for page $pageId with status $statusCode: $cause")
-                                    failureCb(false)
-                                }
-                            } finally {
-                                subscription.cancel()
-                            }
-                        }
-                    } catch (e: JSONException) {
-                        Log.w(TAG, "Failed parsing SSE subscription", e)
-                        failureCb(true)
-                    } catch (e: HttpClient.HttpException) {
-                        if (e.statusCode == 404) {
-                            Log.d(TAG, "Server does not have SSE support")
-                        } else {
-                            Log.w(TAG, "Failed subscribing for SSE", e)
-                        }
-                        failureCb(true)
-                    }
-                }
+        private fun deliverPendingWidgetUpdates() {
+            val widgets = pendingWidgetUpdates.values.toList()
+            pendingWidgetUpdates.clear()
+            if (widgets.isNotEmpty()) {
+                callback.onWidgetsUpdated(url, widgets)
             }
+        }
+
+        private fun discardPendingWidgetUpdates() {
+            if (pendingWidgetUpdates.isNotEmpty()) {
+                Choreographer.getInstance().removeFrameCallback(widgetUpdateFrameCallback)
+                pendingWidgetUpdates.clear()
+            }
+        }
 
-            fun shutdown() {
-                subscribeJob?.cancel()
-                subscribeJob = null
+        private fun handleSseUnsupported() {
+            Log.w(TAG, "SSE unsupported for $url, using long polling")
+            callback.onSseFailure()
+            disconnectEvents()
+            sitemap = null
+            if (longPolling) {
+                load()
             }
         }
     }
 
+    private enum class ParseResult {
+        Success,
+        Timeout,
+        Failure
+    }
+
+    private class PageUpdate(
+        val title: String,
+        val widgets: List<Widget>,
+        val positions: Map<String, Int>,
+        val changes: WidgetListDiff?
+    )
+
+    private sealed class EventUpdate {
+        class Title(val title: String) : EventUpdate()
+
+        class WidgetChange(val position: Int, val widget: Widget) : EventUpdate()
+
+        object Reload : EventUpdate()
+
+        object None : EventUpdate()
+    }
+
     companion object {
         private val TAG = PageConnectionHolderFragment::class.java.simpleName
+
+        // Bounded, so parsing many pages at once doesn't starve other background work
+        @OptIn(ExperimentalCoroutinesApi::class)
+        private val PARSE_DISPATCHER = Dispatchers.Default.limitedParallelism(2)
     }
 }
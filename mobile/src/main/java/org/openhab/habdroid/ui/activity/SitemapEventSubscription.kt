@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.ui.activity
+
+import android.util.Log
+import kotlin.time.Duration.Companion.seconds
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import org.json.JSONException
+import org.json.JSONObject
+import org.openhab.habdroid.util.HttpClient
+import org.openhab.habdroid.util.optStringOrNull
+
+/**
+ * Manages the SSE subscription for a single sitemap and routes its events to the pages
+ * that are currently attached.
+ *
+ * If the server supports it, one stream covering the whole sitemap is shared by all pages.
+ * Otherwise one stream per page is used, and subscriptions released by detached pages are
+ * re-targeted to newly attached pages instead of creating new ones.
+ *
+ * Must only be used from the main thread.
+ */
+internal class SitemapEventSubscription(
+    private val scope: CoroutineScope,
+    val client: HttpClient,
+    private val sitemap: String
+) {
+    class Listener(val updateCb: (pageId: String, event: JSONObject) -> Unit, val unsupportedCb: () -> Unit)
+
+    private val listeners = HashMap<String, Listener>()
+
+    // Keyed by page ID, or null for the stream covering the whole sitemap
+    private val streamJobs = HashMap<String?, Job>()
+    private val subscriptionUrls = HashMap<String?, HttpUrl>()
+    private val spareSubscriptionUrls = ArrayDeque<HttpUrl>()
+    private var wholeSitemapSupported = true
+    private var closeJob: Job? = null
+
+    fun attach(pageId: String, listener: Listener) {
+        Log.d(TAG, "Attaching page $pageId to events of sitemap $sitemap")
+        listeners[pageId] = listener
+        closeJob?.cancel()
+        closeJob = null
+        val streamKey = if (wholeSitemapSupported) null else pageId
+        if (streamKey !in streamJobs) {
+            openStream(streamKey)
+        }
+    }
+
+    fun detach(pageId: String) {
+        if (listeners.remove(pageId) == null) {
+            return
+        }
+        Log.d(TAG, "Detaching page $pageId from events of sitemap $sitemap")
+        closeStream(pageId)
+        if (listeners.isEmpty() && null in streamJobs && closeJob == null) {
+            // Page navigation detaches the old page before attaching the new one,
+            // so give the new page the chance to reuse the shared stream
+            closeJob = scope.launch {
+                delay(STREAM_LINGER_TIME)
+                closeJob = null
+                if (listeners.isEmpty()) {
+                    closeStream(null)
+                }
+            }
+        }
+    }
+
+    fun shutdown() {
+        Log.d(TAG, "Shutting down events of sitemap $sitemap")
+        listeners.clear()
+        closeJob?.cancel()
+        closeJob = null
+        streamJobs.values.forEach { job -> job.cancel() }
+        streamJobs.clear()
+        subscriptionUrls.clear()
+        spareSubscriptionUrls.clear()
+    }
+
+    private fun closeStream(key: String?) {
+        streamJobs.remove(key)?.cancel()
+        subscriptionUrls.remove(key)?.let { url -> spareSubscriptionUrls.addLast(url) }
+    }
+
+    private fun openStream(key: String?) {
+        streamJobs[key] = scope.launch {
+            while (isActive) {
+                val isNewSubscription = key !in subscriptionUrls && spareSubscriptionUrls.isEmpty()
+                val subscriptionUrl = try {
+                    subscriptionUrls[key] ?: spareSubscriptionUrls.removeFirstOrNull() ?: createSubscription()
+                } catch (e: JSONException) {
+                    Log.w(TAG, "Failed parsing SSE subscription", e)
+                    null
+                } catch (e: HttpClient.HttpException) {
+                    if (e.statusCode == 404) {
+                        Log.d(TAG, "Server does not have SSE support")
+                    } else {
+                        Log.w(TAG, "Failed subscribing for SSE", e)
+                    }
+                    null
+                }
+
+                if (subscriptionUrl == null) {
+                    streamJobs.remove(key)
+                    val affectedListeners = when (key) {
+                        null -> listeners.values.toList()
+                        else -> listOfNotNull(listeners[key])
+                    }
+                    affectedListeners.forEach { listener -> listener.unsupportedCb() }
+                    return@launch
+                }
+                subscriptionUrls[key] = subscriptionUrl
+
+                val urlBuilder = subscriptionUrl.newBuilder()
+                if (key == null) {
+                    urlBuilder.addPathSegment("*")
+                }
+                urlBuilder.addQueryParameter("sitemap", sitemap)
+                if (key != null) {
+                    urlBuilder.addQueryParameter("pageid", key)
+                }
+
+                val subscription = client.makeSse(urlBuilder.build())
+                try {
+                    while (isActive) {
+                        dispatch(key, subscription.getNextEvent())
+                    }
+                } catch (e: HttpClient.SseFailureException) {
+                    if (isActive) {
+                        val statusCode = e.response?.code ?: 0
+                        val cause = e.cause?.message
+                        // The subscription might have expired, so start over with a fresh one
+                        subscriptionUrls.remove(key)
+                        if (key == null && isNewSubscription && statusCode == 404) {
+                            Log.d(TAG, "Server does not support events for whole sitemap $sitemap")
+                            wholeSitemapSupported = false
+                            streamJobs.remove(key)
+                            spareSubscriptionUrls.addLast(subscriptionUrl)
+                            listeners.keys.forEach { pageId -> openStream(pageId) }
+                            return@launch
+                        }
+                        Log.w(TAG, "SSE stream failed for sitemap $sitemap, page $key with status $statusCode: $cause")
+                    }
+                } finally {
+                    subscription.cancel()
+                }
+                delay(RETRY_DELAY)
+            }
+        }
+    }
+
+    @Throws(HttpClient.HttpException::class, JSONException::class)
+    private suspend fun createSubscription(): HttpUrl {
+        val response = client.post(
+            "/rest/sitemaps/events/subscribe",
+            "{}",
+            "application/json"
+        ).asText()
+        val result = JSONObject(response.response)
+        val status = result.getString("status")
+        if (status != "CREATED") {
+            throw JSONException("Unexpected status $status")
+        }
+        val headerObject = result.getJSONObject("context").getJSONObject("headers")
+        return headerObject.getJSONArray("Location").getString(0).toHttpUrlOrNull()
+            ?: throw JSONException("Invalid subscription location")
+    }
+
+    private fun dispatch(streamPageId: String?, data: String) {
+        val event = try {
+            JSONObject(data)
+        } catch (e: JSONException) {
+            Log.w(TAG, "Could not parse SSE event ('$data')", e)
+            return
+        }
+
+        if (streamPageId != null) {
+            listeners[streamPageId]?.updateCb?.invoke(streamPageId, event)
+            return
+        }
+
+        val eventPageId = event.optStringOrNull("pageId")
+        val listener = eventPageId?.let { listeners[it] }
+        if (eventPageId != null && listener != null) {
+            listener.updateCb(eventPageId, event)
+        } else if (eventPageId == null || event.optString("TYPE") == "SITEMAP_CHANGED") {
+            // Events not related to a specific page (e.g. sitemap changes) go to all pages
+            listeners.toList().forEach { (pageId, l) -> l.updateCb(pageId, event) }
+        }
+    }
+
+    companion object {
+        private val TAG = SitemapEventSubscription::class.java.simpleName
+        private val STREAM_LINGER_TIME = 1.seconds
+        private val RETRY_DELAY = 1.seconds
+    }
+}
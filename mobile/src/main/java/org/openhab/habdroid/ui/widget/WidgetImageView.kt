@@ -17,6 +17,7 @@ import android.annotation.SuppressLint
 import android.content.Context
 import android.graphics.Bitmap
 import android.graphics.BitmapFactory
+import android.graphics.Rect
 import android.graphics.drawable.Drawable
 import android.os.SystemClock
 import android.util.AttributeSet
@@ -35,6 +36,8 @@ import kotlinx.coroutines.launch
 import okhttp3.HttpUrl
 import org.openhab.habdroid.R
 import org.openhab.habdroid.core.connection.Connection
+import org.openhab.habdroid.ui.IconPrefetcher
+import org.openhab.habdroid.ui.WidgetRefreshScheduler
 import org.openhab.habdroid.ui.widget.WidgetImageView.ImageScalingType
 import org.openhab.habdroid.util.CacheManager
 import org.openhab.habdroid.util.HttpClient
@@ -67,7 +70,8 @@ class WidgetImageView(context: Context, attrs: AttributeSet?, private val imageV
     @SuppressLint("CustomViewStyleable")
     class InternalImageView(context: Context, attrs: AttributeSet?) :
         AppCompatImageView(context, attrs),
-        WidgetImageViewIntf {
+        WidgetImageViewIntf,
+        WidgetRefreshScheduler.Client {
         private var scope: CoroutineScope? = null
         var loadProgressCallback: ((loading: Boolean) -> Unit)? = null
         private val fallback: Drawable?
@@ -80,13 +84,24 @@ class WidgetImageView(context: Context, attrs: AttributeSet?, private val imageV
         private var internalLoad: Boolean = false
         private var lastRequest: HttpImageRequest? = null
 
-        private var refreshInterval: Long = 0
+        override var refreshInterval: Long = 0
+            private set
         private var lastRefreshTimestamp: Long = 0
         private var refreshJob: Job? = null
         private var refreshActive = false
         private var pendingRequest: PendingRequest? = null
         private var pendingLoadJob: Job? = null
         private var targetImageSize: Int = 0
+        private var shownBitmap: Bitmap? = null
+        private val visibleRect = Rect()
+
+        override var refreshScheduler: WidgetRefreshScheduler? = null
+            set(value) {
+                if (value !== field) {
+                    field?.unschedule(this)
+                    field = value
+                }
+            }
 
         init {
             context.obtainStyledAttributes(attrs, R.styleable.WidgetImageView).apply {
@@ -256,6 +271,7 @@ class WidgetImageView(context: Context, attrs: AttributeSet?, private val imageV
         override fun cancelRefresh() {
             refreshJob?.cancel()
             refreshJob = null
+            refreshScheduler?.unschedule(this)
             lastRefreshTimestamp = 0
             refreshActive = false
         }
@@ -266,6 +282,7 @@ class WidgetImageView(context: Context, attrs: AttributeSet?, private val imageV
             lastRequest = null
             refreshInterval = 0
             loadProgressCallback?.invoke(false)
+            updateShownBitmap(null)
         }
 
         private fun doLoad(client: HttpClient, url: HttpUrl, timeoutMillis: Long, forceLoad: Boolean) {
@@ -295,6 +312,10 @@ class WidgetImageView(context: Context, attrs: AttributeSet?, private val imageV
             if (refreshInterval == 0L || !refreshActive) {
                 return
             }
+            refreshScheduler?.let { scheduler ->
+                scheduler.schedule(this, lastRefreshTimestamp + refreshInterval)
+                return
+            }
             val timeToNextRefresh = refreshInterval + lastRefreshTimestamp - SystemClock.uptimeMillis()
             Log.d(TAG, "Scheduling next refresh for ${lastRequest?.url} in $timeToNextRefresh ms")
             refreshJob = scope?.launch {
@@ -303,9 +324,17 @@ class WidgetImageView(context: Context, attrs: AttributeSet?, private val imageV
             }
         }
 
+        override fun isVisibleForRefresh() = isShown && getGlobalVisibleRect(visibleRect)
+
+        override fun refresh(): Job? = lastRequest?.let { request ->
+            request.execute(true)
+            request.job
+        }
+
         private fun cancelCurrentLoad() {
             refreshJob?.cancel()
             refreshJob = null
+            refreshScheduler?.unschedule(this)
             lastRequest?.cancel()
             pendingLoadJob?.cancel()
             pendingLoadJob = null
@@ -323,6 +352,21 @@ class WidgetImageView(context: Context, attrs: AttributeSet?, private val imageV
             internalLoad = true
             super.setImageBitmap(bitmap)
             internalLoad = false
+            updateShownBitmap(bitmap)
+        }
+
+        /**
+         * Tells the bitmap pool which bitmap we show, so it's not reused while we're still drawing it.
+         */
+        private fun updateShownBitmap(bitmap: Bitmap?) {
+            val previousBitmap = shownBitmap
+            if (bitmap === previousBitmap) {
+                return
+            }
+            val bitmapPool = CacheManager.getInstance(context).bitmapPool
+            bitmap?.let { bitmapPool.acquire(it) }
+            previousBitmap?.let { bitmapPool.release(it) }
+            shownBitmap = bitmap
         }
 
         override fun applyFallbackDrawable() {
@@ -332,6 +376,7 @@ class WidgetImageView(context: Context, attrs: AttributeSet?, private val imageV
                 super.setAdjustViewBounds(false)
             }
             super.setImageDrawable(fallback)
+            updateShownBitmap(null)
         }
 
         private inner class HttpImageRequest(
@@ -340,7 +385,8 @@ class WidgetImageView(context: Context, attrs: AttributeSet?, private val imageV
             private val size: Int,
             private val timeoutMillis: Long
         ) {
-            private var job: Job? = null
+            var job: Job? = null
+                private set
             private var lastRandomness = Random.Default.nextInt()
 
             fun execute(avoidCache: Boolean) {
@@ -366,6 +412,9 @@ class WidgetImageView(context: Context, attrs: AttributeSet?, private val imageV
                 }
 
                 job = scope?.launch(Dispatchers.Main) {
+                    // Let visible images take precedence over prefetched icons
+                    val iconPrefetcher = IconPrefetcher.getInstance(context)
+                    iconPrefetcher.onForegroundLoadStarted(url)
                     try {
                         val conversionPolicy = when (originalScaleType ?: scaleType) {
                             ScaleType.FIT_CENTER, ScaleType.FIT_START,
@@ -374,20 +423,38 @@ class WidgetImageView(context: Context, attrs: AttributeSet?, private val imageV
                             else -> ImageConversionPolicy.PreferSourceSize
                         }
                         val fallbackColor = context.getIconFallbackColor(IconBackground.APP_THEME)
-                        val bitmap = client
+                        val cacheManager = CacheManager.getInstance(context)
+                        val diskCachedBitmap = if (avoidCache) {
+                            null
+                        } else {
+                            cacheManager.getIconFromDisk(url, fallbackColor, size)
+                        }
+                        // Icons that were downloaded for another size or color only need to be rendered again
+                        val svgRenderedBitmap = if (avoidCache || diskCachedBitmap != null) {
+                            null
+                        } else {
+                            cacheManager.renderCachedSvg(actualUrl, size, fallbackColor, conversionPolicy)
+                        }
+                        val bitmap = diskCachedBitmap ?: svgRenderedBitmap ?: client
                             .get(actualUrl.toString(), timeoutMillis = timeoutMillis, caching = cachingMode)
-                            .asBitmap(size, fallbackColor, conversionPolicy)
+                            .asBitmap(size, fallbackColor, conversionPolicy, cacheManager)
                             .response
-                        CacheManager.getInstance(context).cacheBitmap(url, bitmap, fallbackColor)
+                        // Show the bitmap before caching it, so it's marked as in use if caching evicts it right away
                         applyLoadedBitmap(bitmap)
+                        cacheManager.cacheBitmap(url, bitmap, fallbackColor)
                         lastRefreshTimestamp = SystemClock.uptimeMillis()
                         scheduleNextRefreshIfNeeded()
+                        if (diskCachedBitmap == null) {
+                            cacheManager.saveIconToDisk(url, bitmap, fallbackColor, size)
+                        }
                     } catch (e: HttpClient.HttpException) {
                         if (context.getPrefs().isDebugModeEnabled()) {
                             Log.d(TAG, "Failed to load image '$url', HTTP code ${e.statusCode}", e)
                         }
                         loadProgressCallback?.invoke(false)
                         applyFallbackDrawable()
+                    } finally {
+                        iconPrefetcher.onForegroundLoadFinished()
                     }
                 }
             }
@@ -441,6 +508,11 @@ internal interface WidgetImageViewIntf {
     )
     fun setBase64EncodedImage(base64: String)
     fun setImageScalingType(type: ImageScalingType)
+
+    /**
+     * Scheduler that refreshes the image together with others, instead of refreshing it on its own.
+     */
+    var refreshScheduler: WidgetRefreshScheduler?
     fun startRefreshingIfNeeded()
     fun cancelRefresh()
     fun applyFallbackDrawable()
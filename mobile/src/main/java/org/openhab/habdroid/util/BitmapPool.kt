@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.util
+
+import android.graphics.Bitmap
+import java.util.WeakHashMap
+
+/**
+ * Keeps bitmaps that are not referenced anymore, so that their memory can be reused for decoding
+ * other bitmaps of similar size instead of allocating new memory.
+ *
+ * Cached bitmaps may be shown by several views at the same time, so views need to mark the bitmaps
+ * they show via [acquire] and [release]. Bitmaps that are still in use are never pooled.
+ */
+class BitmapPool(private val maxSizeBytes: Long) {
+    private val bitmaps = ArrayDeque<Bitmap>()
+    private var sizeBytes = 0L
+    private var hits = 0
+    private var misses = 0
+    private var evictions = 0
+
+    // Bitmap doesn't override equals() and hashCode(), so entries are compared by identity
+    private val useCounts = WeakHashMap<Bitmap, Int>()
+
+    @Synchronized
+    fun acquire(bitmap: Bitmap) {
+        useCounts[bitmap] = (useCounts[bitmap] ?: 0) + 1
+    }
+
+    @Synchronized
+    fun release(bitmap: Bitmap) {
+        val count = useCounts[bitmap] ?: return
+        if (count > 1) {
+            useCounts[bitmap] = count - 1
+        } else {
+            useCounts.remove(bitmap)
+        }
+    }
+
+    /**
+     * Adds a bitmap that is no longer referenced to the pool, unless it's still in use by a view.
+     */
+    @Synchronized
+    fun put(bitmap: Bitmap) {
+        if (!bitmap.isMutable || bitmap.isRecycled || useCounts.containsKey(bitmap) || bitmap in bitmaps) {
+            return
+        }
+        val byteCount = bitmap.allocationByteCount
+        if (byteCount > maxSizeBytes) {
+            return
+        }
+        bitmaps.addLast(bitmap)
+        sizeBytes += byteCount
+        while (sizeBytes > maxSizeBytes) {
+            sizeBytes -= bitmaps.removeFirst().allocationByteCount
+            evictions++
+        }
+    }
+
+    /**
+     * Takes a bitmap from the pool that is large enough to be reconfigured to or decoded into a bitmap
+     * of the given size and config, but doesn't waste too much memory for it.
+     *
+     * @return Mutable bitmap, or null if no suitable bitmap is pooled
+     */
+    @Synchronized
+    fun get(width: Int, height: Int, config: Bitmap.Config): Bitmap? {
+        val neededBytes = byteCountOf(width, height, config)
+        val index = bitmaps.indexOfFirst { bitmap ->
+            bitmap.allocationByteCount.toLong() in neededBytes..neededBytes * MAX_WASTE_FACTOR
+        }
+        if (index < 0) {
+            misses++
+            return null
+        }
+        hits++
+        val bitmap = bitmaps.removeAt(index)
+        sizeBytes -= bitmap.allocationByteCount
+        return bitmap
+    }
+
+    @Synchronized
+    fun getStatistics(name: String) =
+        CacheManager.Statistics(name, hits, misses, evictions, sizeBytes / 1024, maxSizeBytes / 1024)
+
+    @Synchronized
+    fun clear() {
+        bitmaps.clear()
+        sizeBytes = 0
+    }
+
+    companion object {
+        private const val MAX_WASTE_FACTOR = 2
+
+        fun byteCountOf(width: Int, height: Int, config: Bitmap.Config): Long {
+            val bytesPerPixel = when (config) {
+                Bitmap.Config.ALPHA_8 -> 1
+                Bitmap.Config.RGB_565, Bitmap.Config.ARGB_4444 -> 2
+                else -> 4
+            }
+            return width.toLong() * height * bytesPerPixel
+        }
+    }
+}
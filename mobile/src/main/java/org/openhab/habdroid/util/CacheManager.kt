@@ -13,8 +13,11 @@
 
 package org.openhab.habdroid.util
 
+import android.app.ActivityManager
+import android.content.ComponentCallbacks2
 import android.content.Context
 import android.graphics.Bitmap
+import android.util.Log
 import android.util.LruCache
 import androidx.annotation.ColorInt
 import java.io.File
@@ -22,6 +25,9 @@ import java.io.FileInputStream
 import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStream
+import kotlin.math.min
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 import okhttp3.Cache
 import okhttp3.HttpUrl
 import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
@@ -32,16 +38,30 @@ class CacheManager private constructor(appContext: Context) {
     val httpCache: Cache = Cache(File(appContext.cacheDir, "http"), (10 * 1024 * 1024).toLong())
     private val iconBitmapCache: BitmapCache
     private val temporaryBitmapCache: BitmapCache
+    private val svgCache: SvgCache
+    val bitmapPool: BitmapPool
     private val widgetIconDirectory = appContext.getDir("widgeticons", Context.MODE_PRIVATE)
+    private val iconDiskCache = IconDiskCache(File(appContext.cacheDir, "icons"), (10 * 1024 * 1024).toLong())
 
     init {
         // Get max available VM memory, exceeding this amount will throw an
         // OutOfMemory exception. Stored in kilobytes as LruCache takes an
         // int in its constructor.
         val maxMemory = (Runtime.getRuntime().maxMemory() / 1024).toInt()
-        // Use up to 2/8 of the available VM memory for the bitmap cache
-        iconBitmapCache = BitmapCache(maxMemory / 8)
-        temporaryBitmapCache = BitmapCache(maxMemory / 8)
+        // Devices with little memory per app need it for other things than caching,
+        // so base the cache sizes on the memory class and halve them on low end devices
+        val activityManager = appContext.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
+        val isLowMemoryDevice = activityManager.isLowRamDevice || activityManager.memoryClass < LOW_MEMORY_CLASS_MB
+        val cacheMemory = min(maxMemory, activityManager.memoryClass * 1024) / if (isLowMemoryDevice) 2 else 1
+        // Use up to 1/8 of that memory for icons, as they're shown over and over again, and
+        // 1/16 for other images. Use 1/32 for keeping evicted bitmaps for reuse.
+        bitmapPool = BitmapPool(cacheMemory.toLong() * 1024 / 32)
+        // Parsed icons are rendered again for every size and color they're shown in,
+        // so keep them around as well
+        svgCache = SvgCache(cacheMemory / 32)
+        iconBitmapCache = BitmapCache(cacheMemory / 8, bitmapPool)
+        temporaryBitmapCache = BitmapCache(cacheMemory / 16, bitmapPool)
+        Log.d(TAG, "Using $cacheMemory KB for caches, memory class ${activityManager.memoryClass} MB")
     }
 
     fun getCachedBitmap(url: HttpUrl, @ColorInt fallbackColor: Int): Bitmap? {
@@ -54,6 +74,109 @@ class CacheManager private constructor(appContext: Context) {
         targetCache(url).put(key, bitmap)
     }
 
+    /**
+     * @return Parsed SVG icon for the given URL, or null if it wasn't cached or isn't an icon
+     */
+    fun getCachedSvg(url: HttpUrl): ParsedSvg? = if (url.isIconUrl()) svgCache.get(url) else null
+
+    fun cacheSvg(url: HttpUrl, svg: ParsedSvg) {
+        // Other images might change without their URL changing, so only cache icons
+        if (url.isIconUrl()) {
+            svgCache.put(url, svg)
+        }
+    }
+
+    /**
+     * Renders a cached SVG icon, so it can be shown in another size or color without requesting it again.
+     *
+     * @return Rendered icon, or null if no parsed SVG is cached for the given URL or it couldn't be rendered
+     */
+    suspend fun renderCachedSvg(
+        url: HttpUrl,
+        size: Int,
+        @ColorInt fallbackColor: Int,
+        conversionPolicy: ImageConversionPolicy
+    ): Bitmap? {
+        val svg = getCachedSvg(url) ?: return null
+        return withContext(Dispatchers.IO) {
+            try {
+                svg.toBitmap(size, fallbackColor, conversionPolicy, bitmapPool)
+            } catch (e: IOException) {
+                Log.d(TAG, "Failed to render cached SVG $url", e)
+                null
+            }
+        }
+    }
+
+    /**
+     * @return Icon rendered for the given color and size by a previous app run, or null if not available
+     */
+    suspend fun getIconFromDisk(url: HttpUrl, @ColorInt fallbackColor: Int, size: Int): Bitmap? {
+        if (!url.isIconUrl()) {
+            return null
+        }
+        return withContext(Dispatchers.IO) {
+            iconDiskCache.get(url, fallbackColor, size)
+        }
+    }
+
+    suspend fun saveIconToDisk(url: HttpUrl, bitmap: Bitmap, @ColorInt fallbackColor: Int, size: Int) {
+        if (!url.isIconUrl()) {
+            return
+        }
+        // Make sure the bitmap isn't reused while it's written
+        bitmapPool.acquire(bitmap)
+        try {
+            withContext(Dispatchers.IO) {
+                iconDiskCache.put(url, fallbackColor, size, bitmap)
+            }
+        } finally {
+            bitmapPool.release(bitmap)
+        }
+    }
+
+    /**
+     * Drops icons stored on disk for the server at [serverUrl] if they were stored for another server version.
+     * Must not be called from the main thread.
+     */
+    fun updateServerVersion(serverUrl: HttpUrl, version: String) {
+        iconDiskCache.updateServerVersion(serverUrl, version)
+    }
+
+    /**
+     * Frees cache memory depending on how urgently the system needs memory. Images that aren't icons
+     * are dropped first, as they're least likely to be shown again.
+     *
+     * @param level Trim level as passed to [ComponentCallbacks2.onTrimMemory]
+     */
+    // Levels besides TRIM_MEMORY_UI_HIDDEN and TRIM_MEMORY_BACKGROUND are still sent by older OS versions
+    @Suppress("DEPRECATION")
+    fun trimMemory(level: Int) {
+        Log.d(TAG, "Trimming caches for level $level, before: ${getStatistics().joinToString()}")
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            temporaryBitmapCache.evictAll()
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            iconBitmapCache.evictAll()
+            svgCache.evictAll()
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+        ) {
+            iconBitmapCache.trimToSize(iconBitmapCache.maxSize() / 2)
+            svgCache.trimToSize(svgCache.maxSize() / 2)
+        }
+        // Clear the pool last, as evicted bitmaps are put into it
+        bitmapPool.clear()
+    }
+
+    fun getStatistics(): List<Statistics> = listOf(
+        iconBitmapCache.getStatistics("Icons"),
+        temporaryBitmapCache.getStatistics("Images"),
+        svgCache.getStatistics("SVGs"),
+        bitmapPool.getStatistics("Bitmap pool"),
+        iconDiskCache.getStatistics("Icons on disk")
+    )
+
     private fun targetCache(url: HttpUrl): BitmapCache = if (url.isIconUrl()) {
         iconBitmapCache
     } else {
@@ -95,6 +218,9 @@ class CacheManager private constructor(appContext: Context) {
             }
             widgetIconDirectory?.listFiles()?.forEach { f -> f.delete() }
             iconBitmapCache.evictAll()
+            iconDiskCache.clear()
+            svgCache.evictAll()
+            bitmapPool.clear()
         } else {
             // Don't evict icons from httpCache
             try {
@@ -118,14 +244,40 @@ class CacheManager private constructor(appContext: Context) {
         return File(widgetIconDirectory, widgetId.toString() + suffix)
     }
 
-    class BitmapCache(maxSize: Int) : LruCache<CacheKey, Bitmap>(maxSize) {
+    class BitmapCache(maxSize: Int, private val bitmapPool: BitmapPool) : LruCache<CacheKey, Bitmap>(maxSize) {
         override fun sizeOf(key: CacheKey, value: Bitmap): Int = value.byteCount / 1024
+
+        override fun entryRemoved(evicted: Boolean, key: CacheKey, oldValue: Bitmap, newValue: Bitmap?) {
+            if (oldValue !== newValue) {
+                bitmapPool.put(oldValue)
+            }
+        }
+    }
+
+    private fun LruCache<*, *>.getStatistics(name: String) =
+        Statistics(name, hitCount(), missCount(), evictionCount(), size().toLong(), maxSize().toLong())
+
+    class SvgCache(maxSize: Int) : LruCache<HttpUrl, ParsedSvg>(maxSize) {
+        // The parsed document is larger than its source, but grows with it
+        override fun sizeOf(key: HttpUrl, value: ParsedSvg): Int = value.byteCount * 4 / 1024 + 1
+    }
+
+    data class Statistics(
+        val name: String,
+        val hits: Int,
+        val misses: Int,
+        val evictions: Int,
+        val sizeKb: Long,
+        val maxSizeKb: Long
+    ) {
+        override fun toString() = "$name: $hits hits, $misses misses, $evictions evictions, $sizeKb/$maxSizeKb KB"
     }
 
     data class CacheKey(val url: HttpUrl, @ColorInt val fallbackColor: Int)
 
     companion object {
         private val TAG = CacheManager::class.java.simpleName
+        private const val LOW_MEMORY_CLASS_MB = 128
         private var instance: CacheManager? = null
 
         fun getInstance(context: Context): CacheManager {
@@ -28,7 +28,6 @@ import android.content.res.Configuration
 import android.content.res.Resources
 import android.graphics.Bitmap
 import android.graphics.BitmapFactory
-import android.graphics.Canvas
 import android.graphics.Color
 import android.net.ConnectivityManager
 import android.net.Network
@@ -37,8 +36,11 @@ import android.net.wifi.WifiManager
 import android.os.Build
 import android.os.Bundle
 import android.util.DisplayMetrics
+import android.util.JsonReader
+import android.util.JsonToken
 import android.util.Log
 import android.util.TypedValue
+import android.util.Xml
 import android.view.Menu
 import android.view.MenuItem
 import android.widget.Toast
@@ -51,8 +53,6 @@ import androidx.appcompat.app.AppCompatDelegate
 import androidx.core.content.ContextCompat
 import androidx.core.net.toUri
 import androidx.preference.PreferenceManager
-import com.caverock.androidsvg.RenderOptions
-import com.caverock.androidsvg.SVG
 import com.google.android.material.color.DynamicColors
 import com.google.android.material.color.MaterialColors
 import com.google.android.material.shape.MaterialShapeDrawable
@@ -62,6 +62,7 @@ import java.io.EOFException
 import java.io.IOException
 import java.io.InputStream
 import java.io.Serializable
+import java.io.StringReader
 import java.net.ConnectException
 import java.net.Socket
 import java.net.SocketTimeoutException
@@ -75,8 +76,6 @@ import javax.net.ssl.SSLException
 import javax.net.ssl.SSLHandshakeException
 import javax.net.ssl.SSLPeerUnverifiedException
 import kotlin.math.ln
-import kotlin.math.max
-import kotlin.math.round
 import kotlin.math.roundToInt
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.GlobalScope
@@ -97,8 +96,8 @@ import org.openhab.habdroid.model.ServerConfiguration
 import org.openhab.habdroid.model.ServerPath
 import org.openhab.habdroid.model.ServerProperties
 import org.openhab.habdroid.util.Util.TAG
-import org.w3c.dom.Node
-import org.w3c.dom.NodeList
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserException
 
 fun Throwable?.hasCause(cause: Class<out Throwable>): Boolean {
     var error = this
@@ -214,32 +213,94 @@ enum class ImageConversionPolicy {
     ForceTargetSize
 }
 
+/**
+ * Decodes the response into a bitmap, reusing the memory of a bitmap from [bitmapPool] if possible.
+ */
 @Throws(IOException::class)
 fun ResponseBody.toBitmap(
     targetSize: Int,
     @ColorInt fallbackColor: Int,
-    conversionPolicy: ImageConversionPolicy
+    conversionPolicy: ImageConversionPolicy,
+    bitmapPool: BitmapPool? = null
 ): Bitmap {
-    if (!contentType().isSvg()) {
-        val bitmap = BitmapFactory.decodeStream(byteStream())
-            ?: throw IOException(
-                "Bitmap with decoding failed: content type: ${contentType()}, length: ${contentLength()}"
-            )
-        // Avoid overly huge bitmaps, as we both do not want their memory consumption and drawing those bitmaps
-        // to a canvas will fail later anyway. The actual limitation threshold is more or less arbitrary; as of
-        // Android 10 the OS side limit is 100 MB.
-        return if (bitmap.byteCount > 20000000 && bitmap.width > targetSize) {
-            val scaler = bitmap.width.toFloat() / targetSize.toFloat()
-            val scaledHeight = bitmap.height.toFloat() / scaler
-            Bitmap.createScaledBitmap(bitmap, targetSize, scaledHeight.toInt(), true)
-        } else if (conversionPolicy == ImageConversionPolicy.ForceTargetSize) {
-            Bitmap.createScaledBitmap(bitmap, targetSize, targetSize, true)
-        } else {
-            bitmap
+    if (contentType().isSvg()) {
+        return byteStream().svgToBitmap(targetSize, fallbackColor, conversionPolicy, bitmapPool)
+    }
+    val data = bytes()
+    return data.decodeToBitmap(targetSize, conversionPolicy, bitmapPool)
+        ?: throw IOException("Bitmap with decoding failed: content type: ${contentType()}, length: ${data.size}")
+}
+
+/**
+ * Decodes the bitmap directly at the size needed for [targetSize] instead of decoding it at source size
+ * and scaling it afterwards, which would allocate a second bitmap.
+ */
+private fun ByteArray.decodeToBitmap(
+    targetSize: Int,
+    conversionPolicy: ImageConversionPolicy,
+    bitmapPool: BitmapPool?
+): Bitmap? {
+    val options = BitmapFactory.Options()
+    options.inJustDecodeBounds = true
+    BitmapFactory.decodeByteArray(this, 0, size, options)
+    val sourceWidth = options.outWidth
+    val sourceHeight = options.outHeight
+    if (sourceWidth <= 0 || sourceHeight <= 0) {
+        return null
+    }
+
+    // JPEGs can't contain transparency, so there's no need to spend memory on an alpha channel
+    val config = if (options.outMimeType == "image/jpeg") Bitmap.Config.RGB_565 else Bitmap.Config.ARGB_8888
+    // Avoid overly huge bitmaps, as we both do not want their memory consumption and drawing those bitmaps
+    // to a canvas will fail later anyway. The actual limitation threshold is more or less arbitrary; as of
+    // Android 10 the OS side limit is 100 MB.
+    val isHuge = BitmapPool.byteCountOf(sourceWidth, sourceHeight, config) > 20000000 && sourceWidth > targetSize
+    val forceTargetSize = conversionPolicy == ImageConversionPolicy.ForceTargetSize
+
+    // Subsample as far as possible without going below the target size
+    var sampleSize = 1
+    if (targetSize > 0 && (isHuge || conversionPolicy != ImageConversionPolicy.PreferSourceSize)) {
+        while (sourceWidth / (sampleSize * 2) >= targetSize &&
+            (!forceTargetSize || sourceHeight / (sampleSize * 2) >= targetSize)
+        ) {
+            sampleSize *= 2
         }
     }
+    var decodedWidth = (sourceWidth + sampleSize - 1) / sampleSize
+    var decodedHeight = (sourceHeight + sampleSize - 1) / sampleSize
+
+    options.inJustDecodeBounds = false
+    options.inSampleSize = sampleSize
+    options.inPreferredConfig = config
+    options.inMutable = true
+    if (isHuge && !forceTargetSize && decodedWidth > targetSize) {
+        // Let the decoder scale the subsampled bitmap down to the target width
+        options.inScaled = true
+        options.inDensity = decodedWidth
+        options.inTargetDensity = targetSize
+        decodedHeight = (decodedHeight.toLong() * targetSize / decodedWidth).toInt() + 1
+        decodedWidth = targetSize
+    }
+    options.inBitmap = bitmapPool?.get(decodedWidth, decodedHeight, config)
+
+    val bitmap = try {
+        BitmapFactory.decodeByteArray(this, 0, size, options)
+    } catch (e: IllegalArgumentException) {
+        // The pooled bitmap couldn't be reused, so decode into a new one
+        options.inBitmap = null
+        BitmapFactory.decodeByteArray(this, 0, size, options)
+    } ?: return null
+    if (options.inDensity != 0) {
+        // The decoder sets the target density on scaled bitmaps, which would make views scale them again
+        bitmap.density = Resources.getSystem().displayMetrics.densityDpi
+    }
 
-    return byteStream().svgToBitmap(targetSize, fallbackColor, conversionPolicy)
+    if (forceTargetSize && (bitmap.width != targetSize || bitmap.height != targetSize)) {
+        val scaledBitmap = Bitmap.createScaledBitmap(bitmap, targetSize, targetSize, true)
+        bitmapPool?.put(bitmap)
+        return scaledBitmap
+    }
+    return bitmap
 }
 
 fun MediaType?.isSvg(): Boolean = this != null && this.type == "image" && this.subtype.contains("svg")
@@ -248,77 +309,59 @@ fun MediaType?.isSvg(): Boolean = this != null && this.type == "image" && this.s
 fun InputStream.svgToBitmap(
     targetSize: Int,
     @ColorInt fallbackColor: Int,
-    conversionPolicy: ImageConversionPolicy
-): Bitmap = try {
-    val svg = SVG.getFromInputStream(this)
-    val displayMetrics = Resources.getSystem().displayMetrics
-    var density: Float? = displayMetrics.density
-    val targetSizeFloat = targetSize.toFloat()
-
-    if (svg.documentViewBox == null && svg.documentWidth > 0 && svg.documentHeight > 0) {
-        svg.setDocumentViewBox(0F, 0F, svg.documentWidth, svg.documentHeight)
-    }
-    if (conversionPolicy == ImageConversionPolicy.ForceTargetSize ||
-        (conversionPolicy == ImageConversionPolicy.PreferTargetSize && svg.documentViewBox != null)
-    ) {
-        svg.setDocumentWidth("100%")
-        svg.setDocumentHeight("100%")
-    }
-
-    svg.renderDPI = DisplayMetrics.DENSITY_DEFAULT.toFloat()
-    var docWidth = svg.documentWidth * displayMetrics.density
-    var docHeight = svg.documentHeight * displayMetrics.density
-
-    if (docWidth < 0 || docHeight < 0) {
-        val aspectRatio = svg.documentAspectRatio
-        if (aspectRatio > 0) {
-            val heightForAspect = targetSizeFloat / aspectRatio
-            val widthForAspect = targetSizeFloat * aspectRatio
-            if (widthForAspect < heightForAspect) {
-                docWidth = widthForAspect
-                docHeight = targetSizeFloat
-            } else {
-                docWidth = targetSizeFloat
-                docHeight = heightForAspect
-            }
-        } else {
-            docWidth = targetSizeFloat
-            docHeight = targetSizeFloat
-        }
+    conversionPolicy: ImageConversionPolicy,
+    bitmapPool: BitmapPool? = null
+): Bitmap = ParsedSvg.parse(this).toBitmap(targetSize, fallbackColor, conversionPolicy, bitmapPool)
 
-        // we didn't take density into account anymore when calculating docWidth
-        // and docHeight, so don't scale with it and just let the renderer
-        // figure out the scaling
-        density = null
-    }
+fun String.toXmlPullParser(): XmlPullParser {
+    val parser = Xml.newPullParser()
+    parser.setInput(StringReader(this))
+    return parser
+}
 
-    if (docWidth > targetSizeFloat || docHeight > targetSizeFloat) {
-        val widthScaler = max(1F, docWidth / targetSizeFloat)
-        val heightScaler = max(1F, docHeight / targetSizeFloat)
-        val scaler = max(widthScaler, heightScaler)
-        docWidth /= scaler
-        docHeight /= scaler
-        if (density != null) {
-            density /= scaler
+/**
+ * Calls [action] with the name of each child element of the element the parser is positioned at.
+ * When [action] is called, the parser is positioned at the child's start tag. [action] may consume
+ * the child element, anything it leaves unconsumed is skipped. Afterwards the parser is positioned
+ * at the end tag of the element.
+ */
+@Throws(XmlPullParserException::class, IOException::class)
+inline fun XmlPullParser.forEachChildElement(action: (String) -> Unit) {
+    val parentDepth = depth
+    while (true) {
+        when (next()) {
+            XmlPullParser.START_TAG -> {
+                val childDepth = depth
+                action(name)
+                while (eventType != XmlPullParser.END_TAG || depth != childDepth) {
+                    if (next() == XmlPullParser.END_DOCUMENT) {
+                        throw XmlPullParserException("Unexpected end of document", this, null)
+                    }
+                }
+            }
+            XmlPullParser.END_TAG -> if (depth == parentDepth) return
+            XmlPullParser.END_DOCUMENT -> throw XmlPullParserException("Unexpected end of document", this, null)
         }
     }
+}
 
-    val bitmap = Bitmap.createBitmap(round(docWidth).toInt(), round(docHeight).toInt(), Bitmap.Config.ARGB_8888)
-    val canvas = Canvas(bitmap)
-    if (density != null) {
-        canvas.scale(density, density)
+/**
+ * Returns the text of the element the parser is positioned at, including the text of nested elements,
+ * and moves the parser to the element's end tag.
+ */
+@Throws(XmlPullParserException::class, IOException::class)
+fun XmlPullParser.readTextContent(): String {
+    val elementDepth = depth
+    val text = StringBuilder()
+    while (true) {
+        when (next()) {
+            XmlPullParser.TEXT -> text.append(this.text)
+            XmlPullParser.END_TAG -> if (depth == elementDepth) return text.toString()
+            XmlPullParser.END_DOCUMENT -> throw XmlPullParserException("Unexpected end of document", this, null)
+        }
     }
-
-    val options = RenderOptions()
-    options.css(" * { color: ${String.format("#%06X", 0xFFFFFF and fallbackColor)}; }")
-    svg.renderToCanvas(canvas, options)
-    bitmap
-} catch (e: Exception) {
-    throw IOException("SVG decoding failed", e)
 }
 
-fun NodeList.forEach(action: (Node) -> Unit) = (0 until length).forEach { index -> action(item(index)) }
-
 fun JSONArray.forEach(action: (JSONObject) -> Unit) =
     (0 until length()).forEach { index -> action(getJSONObject(index)) }
 
@@ -342,6 +385,49 @@ fun JSONObject.optStringOrNull(key: String): String? = optStringOrFallback(key,
 
 fun JSONObject.optStringOrFallback(key: String, fallback: String?): String? = if (has(key)) getString(key) else fallback
 
+/**
+ * Reads the next value of the stream, returning it as the same type [JSONObject] would use for it
+ * when parsing the equivalent JSON string.
+ */
+@Throws(IOException::class)
+fun JsonReader.nextJsonValue(): Any = when (peek()) {
+    JsonToken.BEGIN_OBJECT -> {
+        val obj = JSONObject()
+        beginObject()
+        while (hasNext()) {
+            obj.put(nextName(), nextJsonValue())
+        }
+        endObject()
+        obj
+    }
+    JsonToken.BEGIN_ARRAY -> {
+        val array = JSONArray()
+        beginArray()
+        while (hasNext()) {
+            array.put(nextJsonValue())
+        }
+        endArray()
+        array
+    }
+    JsonToken.BOOLEAN -> nextBoolean()
+    JsonToken.NULL -> {
+        nextNull()
+        JSONObject.NULL
+    }
+    JsonToken.NUMBER -> nextString().toJsonNumber()
+    else -> nextString()
+}
+
+private fun String.toJsonNumber(): Any {
+    if (none { c -> c == '.' || c == 'e' || c == 'E' }) {
+        val value = toLongOrNull()
+        if (value != null) {
+            return if (value in Int.MIN_VALUE..Int.MAX_VALUE) value.toInt() else value
+        }
+    }
+    return toDoubleOrNull() ?: this
+}
+
 fun String.toJsonArrayOrNull() = try {
     JSONArray(this)
 } catch (e: Exception) {
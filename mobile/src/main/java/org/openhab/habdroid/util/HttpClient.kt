@@ -14,7 +14,9 @@
 package org.openhab.habdroid.util
 
 import android.graphics.Bitmap
+import android.util.JsonReader
 import android.util.Log
+import android.util.Xml
 import androidx.annotation.ColorInt
 import androidx.annotation.VisibleForTesting
 import java.io.IOException
@@ -22,6 +24,7 @@ import java.nio.charset.StandardCharsets
 import java.util.concurrent.TimeUnit
 import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
+import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.Job
@@ -47,6 +50,7 @@ import okhttp3.sse.EventSource
 import okhttp3.sse.EventSourceListener
 import okhttp3.sse.EventSources
 import org.openhab.habdroid.model.Item
+import org.xmlpull.v1.XmlPullParser
 
 class HttpClient(client: OkHttpClient, baseUrl: String?, username: String?, password: String?) {
     private val client: OkHttpClient
@@ -257,19 +261,89 @@ class HttpClient(client: OkHttpClient, baseUrl: String?, username: String?, pass
             close()
         }
 
+        /**
+         * Decodes the response body with [parser] while it is being received, instead of
+         * loading it into memory as a whole first. [parser] is called on [parseDispatcher] once the
+         * first data arrived, and isn't called at all if the body is empty, in which case the
+         * result's response is null.
+         *
+         * As the body is decoded while it's received, [parser] blocks its thread while waiting for the
+         * rest of the body, so [parseDispatcher] should be bounded if it isn't meant for blocking work.
+         */
+        @Throws(HttpException::class)
+        suspend fun <T> asJsonStream(
+            parseDispatcher: CoroutineDispatcher = Dispatchers.IO,
+            parser: (JsonReader) -> T
+        ): HttpJsonResult<T> = try {
+            val result = if (isBodyEmpty()) {
+                null
+            } else {
+                withContext(parseDispatcher) { JsonReader(response.charStream()).use(parser) }
+            }
+            HttpJsonResult(request, result, headers)
+        } catch (e: IOException) {
+            throw HttpException(request, originalUrl, e)
+        } finally {
+            close()
+        }
+
+        /**
+         * Like [asJsonStream], but for XML bodies. The parser passed to [parser] is positioned
+         * at the start of the document.
+         */
+        @Throws(HttpException::class)
+        suspend fun <T> asXmlStream(
+            parseDispatcher: CoroutineDispatcher = Dispatchers.IO,
+            parser: (XmlPullParser) -> T
+        ): HttpXmlResult<T> = try {
+            val result = if (isBodyEmpty()) {
+                null
+            } else {
+                withContext(parseDispatcher) {
+                    response.charStream().use { reader ->
+                        val xmlParser = Xml.newPullParser()
+                        xmlParser.setInput(reader)
+                        parser(xmlParser)
+                    }
+                }
+            }
+            HttpXmlResult(request, result, headers)
+        } catch (e: IOException) {
+            throw HttpException(request, originalUrl, e)
+        } finally {
+            close()
+        }
+
+        // Waits for the first data of the body, which may take long for long polling requests
+        @Throws(IOException::class)
+        private suspend fun isBodyEmpty() = withContext(Dispatchers.IO) { response.source().exhausted() }
+
         suspend fun asStatus(): HttpStatusResult {
             close()
             return HttpStatusResult(request, statusCode)
         }
 
+        /**
+         * Decodes the response into a bitmap. If [cacheManager] is passed, parsed SVG icons are cached
+         * for rendering them in other sizes or colors later and pooled bitmap memory is reused.
+         */
         @Throws(HttpException::class)
         suspend fun asBitmap(
             sizeInPixels: Int,
             @ColorInt fallbackColor: Int,
-            conversionPolicy: ImageConversionPolicy
+            conversionPolicy: ImageConversionPolicy,
+            cacheManager: CacheManager? = null
         ): HttpBitmapResult = try {
             val bitmap = withContext(Dispatchers.IO) {
-                response.toBitmap(sizeInPixels, fallbackColor, conversionPolicy)
+                val bitmapPool = cacheManager?.bitmapPool
+                if (cacheManager != null && response.contentType().isSvg()) {
+                    val url = request.url
+                    val svg = cacheManager.getCachedSvg(url)
+                        ?: ParsedSvg.parse(response.byteStream()).also { cacheManager.cacheSvg(url, it) }
+                    svg.toBitmap(sizeInPixels, fallbackColor, conversionPolicy, bitmapPool)
+                } else {
+                    response.toBitmap(sizeInPixels, fallbackColor, conversionPolicy, bitmapPool)
+                }
             }
             HttpBitmapResult(request, bitmap)
         } catch (e: IOException) {
@@ -283,6 +357,10 @@ class HttpClient(client: OkHttpClient, baseUrl: String?, username: String?, pass
 
     class HttpTextResult internal constructor(val request: Request, val response: String, val headers: Headers)
 
+    class HttpJsonResult<T> internal constructor(val request: Request, val response: T?, val headers: Headers)
+
+    class HttpXmlResult<T> internal constructor(val request: Request, val response: T?, val headers: Headers)
+
     class HttpBitmapResult internal constructor(val request: Request, val response: Bitmap)
 
     class HttpException : Exception {
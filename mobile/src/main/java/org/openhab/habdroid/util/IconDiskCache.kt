@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.util
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.util.Log
+import androidx.annotation.ColorInt
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+import okhttp3.HttpUrl
+
+/**
+ * Keeps rendered icons on disk, so they can be shown right away after an app restart without loading
+ * and rendering them again.
+ *
+ * Icons are stored per server and dropped when the server version changes. If the cache exceeds its
+ * size limit, the least recently used icons are removed. Must not be used from the main thread.
+ */
+class IconDiskCache(private val directory: File, private val maxSizeBytes: Long) {
+    // Access ordered, so iteration starts with the least recently used file
+    private var entries: LinkedHashMap<File, Long>? = null
+    private var sizeBytes = 0L
+    private var hits = 0
+    private var misses = 0
+    private var evictions = 0
+
+    @Synchronized
+    fun get(url: HttpUrl, @ColorInt fallbackColor: Int, size: Int): Bitmap? {
+        val file = fileFor(url, fallbackColor, size)
+        val bitmap = if (loadEntries()[file] != null) {
+            val options = BitmapFactory.Options()
+            // Allow reusing the bitmap's memory once it's evicted from the memory cache
+            options.inMutable = true
+            BitmapFactory.decodeFile(file.path, options)
+        } else {
+            null
+        }
+
+        if (bitmap != null) {
+            hits++
+            file.setLastModified(System.currentTimeMillis())
+        } else {
+            misses++
+            remove(file)
+        }
+        if ((hits + misses) % HIT_RATIO_LOG_INTERVAL == 0) {
+            Log.d(TAG, "Hit ratio ${hits * 100 / (hits + misses)}% ($hits hits, $misses misses)")
+        }
+        return bitmap
+    }
+
+    @Synchronized
+    fun put(url: HttpUrl, @ColorInt fallbackColor: Int, size: Int, bitmap: Bitmap) {
+        val file = fileFor(url, fallbackColor, size)
+        val tempFile = File(file.path + ".tmp")
+        try {
+            file.parentFile?.mkdirs()
+            FileOutputStream(tempFile).use { out ->
+                if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                    throw IOException("Compressing bitmap failed")
+                }
+            }
+            if (!tempFile.renameTo(file)) {
+                throw IOException("Renaming $tempFile failed")
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to store icon $url", e)
+            tempFile.delete()
+            return
+        }
+
+        val entries = loadEntries()
+        entries.remove(file)?.let { previousLength -> sizeBytes -= previousLength }
+        val length = file.length()
+        entries[file] = length
+        sizeBytes += length
+        trimToSize()
+    }
+
+    /**
+     * Drops all icons of the server [serverUrl] points to if they were stored for another server version.
+     */
+    @Synchronized
+    fun updateServerVersion(serverUrl: HttpUrl, version: String) {
+        val serverDirectory = serverDirectoryFor(serverUrl)
+        val versionFile = File(serverDirectory, VERSION_FILE_NAME)
+        val previousVersion = if (versionFile.exists()) versionFile.readText() else null
+        if (previousVersion == version) {
+            return
+        }
+        Log.d(TAG, "Version of server ${serverDirectory.name} changed from $previousVersion to $version")
+        loadEntries().keys.filter { file -> file.parentFile == serverDirectory }.forEach { file -> remove(file) }
+        try {
+            serverDirectory.mkdirs()
+            versionFile.writeText(version)
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to store server version", e)
+        }
+    }
+
+    @Synchronized
+    fun getStatistics(name: String): CacheManager.Statistics {
+        // Don't scan the cache directory just for the statistics
+        val size = if (entries != null) sizeBytes / 1024 else 0
+        return CacheManager.Statistics(name, hits, misses, evictions, size, maxSizeBytes / 1024)
+    }
+
+    @Synchronized
+    fun clear() {
+        directory.deleteRecursively()
+        entries = null
+        sizeBytes = 0
+    }
+
+    private fun loadEntries(): LinkedHashMap<File, Long> {
+        entries?.let { return it }
+        val files = directory.walkTopDown()
+            .filter { file -> file.isFile && file.name.endsWith(ICON_FILE_SUFFIX) }
+            .sortedBy { file -> file.lastModified() }
+        val loadedEntries = LinkedHashMap<File, Long>(16, 0.75F, true)
+        files.forEach { file -> loadedEntries[file] = file.length() }
+        sizeBytes = loadedEntries.values.sum()
+        entries = loadedEntries
+        return loadedEntries
+    }
+
+    private fun remove(file: File) {
+        loadEntries().remove(file)?.let { length -> sizeBytes -= length }
+        file.delete()
+    }
+
+    private fun trimToSize() {
+        val iterator = loadEntries().entries.iterator()
+        while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+            val (file, length) = iterator.next()
+            iterator.remove()
+            sizeBytes -= length
+            evictions++
+            file.delete()
+        }
+    }
+
+    private fun serverDirectoryFor(url: HttpUrl) = File(directory, "${url.host}_${url.port}")
+
+    private fun fileFor(url: HttpUrl, @ColorInt fallbackColor: Int, size: Int): File {
+        val digest = MessageDigest.getInstance("SHA-1").digest("$url|$fallbackColor|$size".toByteArray())
+        val name = digest.joinToString("") { byte -> "%02x".format(byte) }
+        return File(serverDirectoryFor(url), name + ICON_FILE_SUFFIX)
+    }
+
+    companion object {
+        private val TAG = IconDiskCache::class.java.simpleName
+        private const val ICON_FILE_SUFFIX = ".png"
+        private const val VERSION_FILE_NAME = "version"
+        private const val HIT_RATIO_LOG_INTERVAL = 20
+    }
+}
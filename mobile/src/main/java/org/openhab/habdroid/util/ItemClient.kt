@@ -15,25 +15,14 @@ package org.openhab.habdroid.util
 
 import android.util.Log
 import java.io.IOException
-import java.io.StringReader
-import javax.xml.parsers.DocumentBuilderFactory
-import javax.xml.parsers.ParserConfigurationException
-import kotlin.time.Duration.Companion.seconds
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.ExperimentalCoroutinesApi
-import kotlinx.coroutines.TimeoutCancellationException
-import kotlinx.coroutines.channels.produce
-import kotlinx.coroutines.delay
-import kotlinx.coroutines.isActive
-import kotlinx.coroutines.withTimeout
 import org.json.JSONArray
 import org.json.JSONException
 import org.json.JSONObject
 import org.openhab.habdroid.core.connection.Connection
 import org.openhab.habdroid.model.Item
+import org.openhab.habdroid.model.readItem
 import org.openhab.habdroid.model.toItem
-import org.xml.sax.InputSource
-import org.xml.sax.SAXException
+import org.xmlpull.v1.XmlPullParserException
 
 object ItemClient {
     private val TAG = ItemClient::class.java.simpleName
@@ -55,19 +44,16 @@ object ItemClient {
         } else {
             // XML
             return try {
-                val dbf = DocumentBuilderFactory.newInstance()
-                val builder = dbf.newDocumentBuilder()
-                val document = builder.parse(InputSource(StringReader(content)))
-                val nodes = document.childNodes
-                val items = ArrayList<Item>(nodes.length)
-                for (i in 0 until nodes.length) {
-                    nodes.item(i).toItem()?.let { items.add(it) }
+                val parser = content.toXmlPullParser()
+                parser.nextTag()
+                val items = ArrayList<Item>()
+                parser.forEachChildElement { name ->
+                    if (name == "item") {
+                        parser.readItem()?.let { items.add(it) }
+                    }
                 }
                 items
-            } catch (e: ParserConfigurationException) {
-                Log.e(TAG, "Failed parsing XML result for items", e)
-                null
-            } catch (e: SAXException) {
+            } catch (e: XmlPullParserException) {
                 Log.e(TAG, "Failed parsing XML result for items", e)
                 null
             } catch (e: IOException) {
@@ -94,14 +80,10 @@ object ItemClient {
         } else {
             // XML
             return try {
-                val dbf = DocumentBuilderFactory.newInstance()
-                val builder = dbf.newDocumentBuilder()
-                val document = builder.parse(InputSource(StringReader(content)))
-                document.toItem()
-            } catch (e: ParserConfigurationException) {
-                Log.e(TAG, "Failed parsing XML result for item $itemName", e)
-                null
-            } catch (e: SAXException) {
+                val parser = content.toXmlPullParser()
+                parser.nextTag()
+                parser.readItem()
+            } catch (e: XmlPullParserException) {
                 Log.e(TAG, "Failed parsing XML result for item $itemName", e)
                 null
             } catch (e: IOException) {
@@ -110,52 +92,4 @@ object ItemClient {
             }
         }
     }
-
-    // Emits pairs of 'item name' - 'item state'
-    @OptIn(ExperimentalCoroutinesApi::class)
-    fun listenForItemChange(scope: CoroutineScope, connection: Connection, itemName: String?) = scope.produce {
-        while (scope.isActive) {
-            val subscription = connection.httpClient.makeSse(
-                // Support for both the "openhab" and the older "smarthome" root topic by using a wildcard
-                connection.httpClient.buildUrl("rest/events?topics=*/items/${itemName ?: "*"}/command")
-            )
-
-            while (scope.isActive) {
-                try {
-                    // ALIVE event is sent every 10 seconds, so use a timeout somewhat larger than that
-                    val event = withTimeout(30.seconds) {
-                        JSONObject(subscription.getNextEvent())
-                    }
-                    if (event.optString("type") == "ALIVE") {
-                        Log.d(TAG, "Got ALIVE event for item $itemName")
-                        continue
-                    }
-                    val topic = event.getString("topic")
-                    val topicPath = topic.split('/')
-                    // Possible formats:
-                    // - openhab/items/<item>/statechanged
-                    // - openhab/items/<group item>/<item>/statechanged
-                    // When an update for a group is sent, there's also one for the individual item.
-                    // Therefore always take the element on index two.
-                    if (topicPath.size !in 4..5) {
-                        throw JSONException("Unexpected topic path $topic")
-                    }
-                    val payload = JSONObject(event.getString("payload"))
-                    Log.d(TAG, "Got payload: $payload")
-                    send(topicPath[2] to payload.getString("value"))
-                } catch (e: JSONException) {
-                    Log.e(TAG, "Failed parsing JSON of state change event for item $itemName", e)
-                } catch (e: HttpClient.SseFailureException) {
-                    Log.e(TAG, "SSE failure for item $itemName", e)
-                    break // restart subscription
-                } catch (e: TimeoutCancellationException) {
-                    Log.d(TAG, "No events received for item $itemName, restarting subscription $scope")
-                    break // restart subscription
-                }
-            }
-
-            subscription.cancel()
-            delay(5.seconds)
-        }
-    }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.util
+
+import android.util.Log
+import kotlin.time.Duration.Companion.seconds
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeout
+import org.json.JSONException
+import org.json.JSONObject
+import org.openhab.habdroid.core.connection.Connection
+
+/**
+ * Process wide dispatcher for item command events sent by the server.
+ *
+ * All subscribers of a given server connection share a single SSE subscription, which is opened
+ * when the first subscriber starts collecting and closed when the last one stops.
+ */
+object ItemEventBus {
+    private val TAG = ItemEventBus::class.java.simpleName
+
+    private val buses = HashMap<HttpClient, Bus>()
+
+    data class ItemEvent(val itemName: String, val state: String, val topic: String)
+
+    /**
+     * Emits command events for the given item, or for all items if [itemName] is null. If [topic] is
+     * given, only events whose topic matches it are emitted.
+     */
+    fun events(connection: Connection, itemName: String? = null, topic: Regex? = null): Flow<ItemEvent> = flow {
+        val httpClient = connection.httpClient
+        val bus = synchronized(buses) {
+            buses.getOrPut(httpClient) {
+                Bus(
+                    scope = GlobalScope,
+                    lock = buses,
+                    onIdle = { idleBus ->
+                        if (buses[httpClient] === idleBus) {
+                            buses.remove(httpClient)
+                        }
+                    },
+                    readEvents = { sseTopic, onEvent -> listen(httpClient, sseTopic, onEvent) }
+                )
+            }
+        }
+        emitAll(bus.events(itemName, topic))
+    }
+
+    /**
+     * Fans out events read by [readEvents] to its subscribers. Events are only read while there's at least
+     * one subscriber, and only for the items the subscribers are interested in.
+     *
+     * Each subscriber gets its own unbounded channel, so a slow subscriber neither stalls the others
+     * nor loses events.
+     */
+    internal class Bus(
+        private val scope: CoroutineScope,
+        private val lock: Any = Any(),
+        private val onIdle: (Bus) -> Unit = {},
+        private val readEvents: suspend (sseTopic: String, onEvent: (ItemEvent) -> Unit) -> Unit
+    ) {
+        private val subscribers = mutableListOf<Subscriber>()
+        private var job: Job? = null
+        private var sseTopic: String? = null
+
+        fun events(itemName: String?, topic: Regex?): Flow<ItemEvent> = flow {
+            val subscriber = Subscriber(itemName, topic)
+            // Register the subscriber before events are read, so none of them are missed
+            synchronized(lock) {
+                subscribers.add(subscriber)
+                updateSubscription()
+            }
+            try {
+                emitAll(subscriber.channel)
+            } finally {
+                synchronized(lock) {
+                    subscribers.remove(subscriber)
+                    updateSubscription()
+                }
+            }
+        }
+
+        private fun updateSubscription() {
+            if (subscribers.isEmpty()) {
+                Log.d(TAG, "Closing event subscription")
+                job?.cancel()
+                job = null
+                sseTopic = null
+                onIdle(this)
+                return
+            }
+            // Only ask for the events of a single item if nobody is interested in other items
+            val itemName = subscribers.map { subscriber -> subscriber.itemName }.distinct().singleOrNull()
+            // Support for both the "openhab" and the older "smarthome" root topic by using a wildcard
+            val topic = "*/items/${itemName ?: "*"}/command"
+            if (topic == sseTopic && job?.isActive == true) {
+                return
+            }
+            Log.d(TAG, "Opening event subscription for $topic")
+            job?.cancel()
+            sseTopic = topic
+            job = scope.launch { readEvents(topic, ::dispatch) }
+        }
+
+        private fun dispatch(event: ItemEvent) = synchronized(lock) {
+            subscribers
+                .filter { subscriber -> subscriber.matches(event) }
+                .forEach { subscriber -> subscriber.channel.trySend(event) }
+        }
+
+        private class Subscriber(val itemName: String?, val topic: Regex?) {
+            val channel = Channel<ItemEvent>(Channel.UNLIMITED)
+
+            fun matches(event: ItemEvent) =
+                (itemName == null || event.itemName == itemName) && (topic == null || topic.matches(event.topic))
+        }
+    }
+
+    private suspend fun listen(httpClient: HttpClient, sseTopic: String, onEvent: (ItemEvent) -> Unit) {
+        while (true) {
+            val subscription = httpClient.makeSse(httpClient.buildUrl("rest/events?topics=$sseTopic"))
+
+            try {
+                readEvents(subscription, onEvent)
+            } finally {
+                subscription.cancel()
+            }
+            delay(5.seconds)
+        }
+    }
+
+    private suspend fun readEvents(subscription: HttpClient.SseSubscription, onEvent: (ItemEvent) -> Unit) {
+        while (currentCoroutineContext().isActive) {
+            try {
+                // ALIVE event is sent every 10 seconds, so use a timeout somewhat larger than that
+                val event = withTimeout(30.seconds) {
+                    JSONObject(subscription.getNextEvent())
+                }
+                if (event.optString("type") == "ALIVE") {
+                    Log.d(TAG, "Got ALIVE event")
+                    continue
+                }
+                val topic = event.getString("topic")
+                val topicPath = topic.split('/')
+                // Possible formats:
+                // - openhab/items/<item>/statechanged
+                // - openhab/items/<group item>/<item>/statechanged
+                // When an update for a group is sent, there's also one for the individual item.
+                // Therefore always take the element on index two.
+                if (topicPath.size !in 4..5) {
+                    throw JSONException("Unexpected topic path $topic")
+                }
+                val payload = JSONObject(event.getString("payload"))
+                Log.d(TAG, "Got payload: $payload")
+                onEvent(ItemEvent(topicPath[2], payload.getString("value"), topic))
+            } catch (e: JSONException) {
+                Log.e(TAG, "Failed parsing JSON of state change event", e)
+            } catch (e: HttpClient.SseFailureException) {
+                Log.e(TAG, "SSE failure", e)
+                return // restart subscription
+            } catch (e: TimeoutCancellationException) {
+                Log.d(TAG, "No events received, restarting subscription")
+                return // restart subscription
+            }
+        }
+    }
+}
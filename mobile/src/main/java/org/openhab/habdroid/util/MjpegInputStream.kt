@@ -13,88 +13,150 @@
 
 package org.openhab.habdroid.util
 
-import android.graphics.Bitmap
-import android.graphics.BitmapFactory
-import java.io.BufferedInputStream
-import java.io.ByteArrayInputStream
-import java.io.DataInputStream
+import android.os.SystemClock
+import java.io.Closeable
+import java.io.EOFException
 import java.io.IOException
 import java.io.InputStream
-import java.util.Properties
 
-class MjpegInputStream(stream: InputStream) : DataInputStream(BufferedInputStream(stream, FRAME_MAX_LENGTH)) {
+/**
+ * Splits a multipart MJPEG stream into its JPEG frames.
+ *
+ * The stream is read in bulk into a buffer that is reused for all frames and grows as needed, and
+ * frames are copied from that buffer into reusable [MjpegFrame]s. The end of a frame is determined by
+ * the Content-Length header of its part if present, by the multipart [boundary] otherwise, or by the
+ * JPEG end marker as last resort.
+ */
+class MjpegInputStream(private val stream: InputStream, boundary: String? = null) : Closeable {
+    // Parts are separated by a line break, two dashes and the boundary
+    private val delimiterBytes = boundary?.trim('"')?.takeIf { it.isNotEmpty() }
+        ?.let { "\r\n--$it".toByteArray(Charsets.US_ASCII) }
+
+    private var buffer = ByteArray(INITIAL_BUFFER_SIZE)
+
+    // Unconsumed data is located between start and end of the buffer
+    private var start = 0
+    private var end = 0
+
+    /**
+     * Reads the next frame into [frame], growing its data array if needed.
+     *
+     * @throws EOFException if the stream ended
+     */
     @Throws(IOException::class)
-    private fun getEndOfSequence(stream: DataInputStream, sequence: ByteArray): Int {
-        var seqIndex = 0
-        for (i in 0 until FRAME_MAX_LENGTH) {
-            val c = stream.readUnsignedByte().toByte()
-            if (c == sequence[seqIndex]) {
-                seqIndex++
-                if (seqIndex == sequence.size) {
-                    return i + 1
-                }
-            } else {
-                seqIndex = 0
-            }
+    fun readFrame(frame: MjpegFrame) {
+        // All offsets are relative to start, as reading more data may move the buffer contents
+        val soiOffset = indexOf(SOI_MARKER, 0)
+        val contentLength = parseContentLength(soiOffset)
+        val frameEndOffset = when {
+            contentLength != null -> soiOffset + contentLength
+            delimiterBytes != null -> indexOf(delimiterBytes, soiOffset + SOI_MARKER.size)
+            else -> indexOf(EOI_MARKER, soiOffset + SOI_MARKER.size) + EOI_MARKER.size
+        }
+        ensureAvailable(frameEndOffset)
+
+        val frameLength = frameEndOffset - soiOffset
+        if (frame.data.size < frameLength) {
+            frame.data = ByteArray(frameLength)
         }
-        return -1
+        System.arraycopy(buffer, start + soiOffset, frame.data, 0, frameLength)
+        frame.length = frameLength
+        frame.receivedTimestamp = SystemClock.uptimeMillis()
+        start += frameEndOffset
     }
 
-    @Throws(IOException::class)
-    private fun getStartOfSequence(stream: DataInputStream, sequence: ByteArray): Int {
-        val end = getEndOfSequence(stream, sequence)
-        return if (end < 0) -1 else end - sequence.size
+    override fun close() {
+        stream.close()
     }
 
-    @Throws(IOException::class, NumberFormatException::class)
-    private fun parseContentLength(headerBytes: ByteArray): Int {
-        val headerIn = ByteArrayInputStream(headerBytes)
-        val props = Properties()
-        try {
-            props.load(headerIn)
-        } catch (e: IllegalArgumentException) {
-            throw IOException("Error loading props", e)
-        }
-        return Integer.parseInt(props.getProperty(CONTENT_LENGTH))
+    private fun parseContentLength(headerLength: Int): Int? {
+        val header = String(buffer, start, headerLength, Charsets.US_ASCII)
+        return header.lineSequence()
+            .map { line -> line.split(':', limit = 2) }
+            .firstOrNull { parts -> parts.size == 2 && parts[0].trim().equals(CONTENT_LENGTH, ignoreCase = true) }
+            ?.let { parts -> parts[1].trim().toIntOrNull() }
+            ?.takeIf { length -> length in SOI_MARKER.size..MAX_FRAME_LENGTH }
     }
 
+    /**
+     * Finds [pattern] in the unconsumed data, reading more data until it's found.
+     *
+     * @return Offset of the pattern relative to the unconsumed data
+     */
     @Throws(IOException::class)
-    fun readMjpegFrame(): Bitmap? {
-        mark(FRAME_MAX_LENGTH)
-        val headerLen = getStartOfSequence(this, SOI_MARKER)
-        reset()
-
-        if (headerLen < 0) {
-            return null
+    private fun indexOf(pattern: ByteArray, fromOffset: Int): Int {
+        var searchOffset = fromOffset
+        while (true) {
+            val index = buffer.indexOf(pattern, start + searchOffset, end)
+            if (index >= 0) {
+                return index - start
+            }
+            // Only search the new data next time, but keep in mind the pattern might be split across reads
+            searchOffset = maxOf(fromOffset, end - start - pattern.size + 1)
+            fill()
         }
+    }
 
-        val header = ByteArray(headerLen)
-        readFully(header)
-
-        val contentLength = try {
-            parseContentLength(header)
-        } catch (nfe: NumberFormatException) {
-            getEndOfSequence(this, EOF_MARKER)
+    @Throws(IOException::class)
+    private fun ensureAvailable(length: Int) {
+        while (end - start < length) {
+            fill()
         }
+    }
 
-        reset()
-        skipBytes(headerLen)
-
-        if (contentLength < 0) {
-            return null
+    @Throws(IOException::class)
+    private fun fill() {
+        val available = end - start
+        if (available >= MAX_FRAME_LENGTH) {
+            throw IOException("No MJPEG frame found within $MAX_FRAME_LENGTH bytes")
         }
-
-        val frameData = ByteArray(contentLength)
-        readFully(frameData)
-
-        return BitmapFactory.decodeStream(ByteArrayInputStream(frameData))
+        if (end == buffer.size) {
+            val target = if (start > 0) buffer else ByteArray(buffer.size * 2)
+            System.arraycopy(buffer, start, target, 0, available)
+            buffer = target
+            start = 0
+            end = available
+        }
+        val read = stream.read(buffer, end, buffer.size - end)
+        if (read < 0) {
+            throw EOFException("MJPEG stream ended")
+        }
+        end += read
     }
 
     companion object {
         private val SOI_MARKER = byteArrayOf(0xFF.toByte(), 0xD8.toByte())
-        private val EOF_MARKER = byteArrayOf(0xFF.toByte(), 0xD9.toByte())
-        private const val HEADER_MAX_LENGTH = 100
-        private const val FRAME_MAX_LENGTH = 400000 + HEADER_MAX_LENGTH
+        private val EOI_MARKER = byteArrayOf(0xFF.toByte(), 0xD9.toByte())
+        private const val INITIAL_BUFFER_SIZE = 64 * 1024
+        private const val MAX_FRAME_LENGTH = 16 * 1024 * 1024
         private const val CONTENT_LENGTH = "Content-Length"
+
+        private fun ByteArray.indexOf(pattern: ByteArray, fromIndex: Int, toIndex: Int): Int {
+            val first = pattern[0]
+            for (i in fromIndex..toIndex - pattern.size) {
+                if (this[i] != first) {
+                    continue
+                }
+                var matched = 1
+                while (matched < pattern.size && this[i + matched] == pattern[matched]) {
+                    matched++
+                }
+                if (matched == pattern.size) {
+                    return i
+                }
+            }
+            return -1
+        }
     }
 }
+
+/**
+ * JPEG data of an MJPEG frame. The data array is reused for later frames, so it may be larger than the frame.
+ */
+class MjpegFrame {
+    var data = ByteArray(0)
+    var length = 0
+
+    // Based on SystemClock.uptimeMillis()
+    var receivedTimestamp = 0L
+}
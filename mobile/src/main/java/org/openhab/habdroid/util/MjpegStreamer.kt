@@ -13,63 +13,340 @@
 
 package org.openhab.habdroid.util
 
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.os.SystemClock
 import android.util.Log
 import java.io.IOException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.openhab.habdroid.core.connection.Connection
 import org.openhab.habdroid.ui.widget.WidgetImageView
 
-class MjpegStreamer(private val view: WidgetImageView, connection: Connection, private val url: String) {
-    private val httpClient = connection.httpClient
-    private var job: Job? = null
+/**
+ * Shows an MJPEG stream in a [WidgetImageView].
+ *
+ * Streamers showing the same URL of the same connection share one stream: its frames are read and
+ * decoded once and shown in all views. The stream is closed when the last streamer using it stops.
+ * If [maxFps] is set, frames are shown at most at that rate. Unless [fullResolution] is set, frames
+ * are subsampled while decoding as far as the size of the views allows.
+ *
+ * Must only be used from the main thread.
+ */
+class MjpegStreamer(
+    internal val view: WidgetImageView,
+    private val connection: Connection,
+    private val url: String,
+    internal val maxFps: Int = 0,
+    internal val fullResolution: Boolean = false
+) {
+    private var stream: SharedStream? = null
 
     fun start() {
-        val job = Job()
-        this.job = job
-        doStream(CoroutineScope(Dispatchers.IO + job))
+        if (stream != null) {
+            return
+        }
+        val key = StreamKey(connection, url)
+        val stream = streams.getOrPut(key) { SharedStream(key) }
+        stream.attach(this)
+        this.stream = stream
     }
 
     fun stop() {
-        job?.cancel()
-        job = null
+        val stream = stream ?: return
+        this.stream = null
+        if (stream.detach(this)) {
+            streams.remove(stream.key)
+        }
     }
 
-    @Throws(HttpClient.HttpException::class)
-    private suspend fun startStream(): MjpegInputStream {
-        val result = httpClient.get(url)
-        Log.d(TAG, "MJPEG request finished, status = ${result.statusCode}")
-        return MjpegInputStream(result.response.byteStream())
-    }
+    fun getStatistics(): Statistics? = stream?.getStatistics()
+
+    data class Statistics(
+        val viewers: Int,
+        val receivedFrames: Long,
+        val decodedFrames: Long,
+        val droppedFrames: Long,
+        val averageLatencyMs: Long,
+        val maxLatencyMs: Long
+    )
+
+    private data class StreamKey(val connection: Connection, val url: String)
+
+    /**
+     * Reads and decodes the frames of an MJPEG stream and shows them in all attached views.
+     *
+     * Reading and decoding frames are done separately: if decoding or drawing can't keep up with the
+     * stream, frames that weren't decoded yet are dropped in favor of newer ones, so the shown image
+     * doesn't lag behind.
+     */
+    private class SharedStream(val key: StreamKey) {
+        private val viewers = mutableListOf<MjpegStreamer>()
+        private var job: Job? = null
 
-    private fun doStream(scope: CoroutineScope) = scope.launch {
-        while (isActive) {
-            try {
-                startStream().use { stream ->
-                    while (isActive) {
-                        val bitmap = stream.readMjpegFrame()
-                        if (bitmap != null && isActive) {
-                            withContext(Dispatchers.Main) {
-                                view.setImageBitmap(bitmap)
-                            }
+        // Updated on the main thread, read by the decoder
+        @Volatile private var viewWidth = 0
+
+        @Volatile private var viewHeight = 0
+
+        @Volatile private var fullResolution = false
+
+        @Volatile private var minFrameIntervalMs = 0L
+
+        // Bitmap shown by all viewers, only accessed from the main thread
+        private var currentBitmap: Bitmap? = null
+
+        // Bitmaps that are still shown by detached viewers and thus must not be reused
+        private val retainedBitmaps = mutableSetOf<Bitmap>()
+
+        private var receivedFrames = 0L
+        private var decodedFrames = 0L
+        private var droppedFrames = 0L
+        private var totalLatencyMs = 0L
+        private var maxLatencyMs = 0L
+
+        fun attach(viewer: MjpegStreamer) {
+            viewers.add(viewer)
+            updateViewerRequirements()
+            // Also restart streams that ended because the server returned an error
+            if (job?.isActive != true) {
+                Log.d(TAG, "Start streaming from ${key.url}")
+                val job = Job()
+                this.job = job
+                val scope = CoroutineScope(Dispatchers.IO + job)
+                val handoff = FrameHandoff()
+                doStream(scope, handoff)
+                doDecode(scope, handoff)
+            }
+        }
+
+        /**
+         * @return Whether the stream was stopped because the last viewer was detached
+         */
+        fun detach(viewer: MjpegStreamer): Boolean {
+            viewers.remove(viewer)
+            if (viewers.isNotEmpty()) {
+                // The viewer keeps showing the current frame, so don't decode other frames into it
+                currentBitmap?.let { bitmap -> synchronized(retainedBitmaps) { retainedBitmaps.add(bitmap) } }
+                updateViewerRequirements()
+                return false
+            }
+            job?.cancel()
+            job = null
+            Log.d(TAG, "Stopped streaming from ${key.url}: ${getStatistics()}")
+            return true
+        }
+
+        @Synchronized
+        fun getStatistics() = Statistics(
+            viewers.size,
+            receivedFrames,
+            decodedFrames,
+            droppedFrames,
+            if (decodedFrames > 0) totalLatencyMs / decodedFrames else 0,
+            maxLatencyMs
+        )
+
+        /**
+         * Decodes frames in a way that is good enough for all viewers.
+         */
+        private fun updateViewerRequirements() {
+            viewWidth = viewers.maxOf { viewer -> viewer.view.width }
+            viewHeight = viewers.maxOf { viewer -> viewer.view.height }
+            fullResolution = viewers.any { viewer -> viewer.fullResolution }
+            minFrameIntervalMs = if (viewers.any { viewer -> viewer.maxFps <= 0 }) {
+                0
+            } else {
+                1000L / viewers.maxOf { viewer -> viewer.maxFps }
+            }
+        }
+
+        @Throws(HttpClient.HttpException::class)
+        private suspend fun startStream(): MjpegInputStream {
+            val result = key.connection.httpClient.get(key.url)
+            Log.d(TAG, "MJPEG request finished, status = ${result.statusCode}")
+            val boundary = result.response.contentType()?.parameter("boundary")
+            return MjpegInputStream(result.response.byteStream(), boundary)
+        }
+
+        private fun doStream(scope: CoroutineScope, handoff: FrameHandoff) = scope.launch {
+            while (isActive) {
+                try {
+                    startStream().use { stream ->
+                        while (isActive) {
+                            val frame = handoff.obtain()
+                            stream.readFrame(frame)
+                            onFrameReceived(handoff.publish(frame))
                         }
                     }
+                } catch (e: HttpClient.HttpException) {
+                    Log.e(TAG, "MJPEG streaming from ${key.url} failed", e)
+                    // No point in continuing if the server returned failure
+                    break
+                } catch (e: IOException) {
+                    Log.e(TAG, "MJPEG streaming from ${key.url} was interrupted", e)
+                }
+            }
+            // Also stop the decoder, so the stream is restarted when the next viewer attaches
+            scope.cancel()
+        }
+
+        private fun doDecode(scope: CoroutineScope, handoff: FrameHandoff) = scope.launch(Dispatchers.Default) {
+            val options = BitmapFactory.Options()
+            val replacedBitmaps = ArrayDeque<Bitmap>()
+            var shownBitmap: Bitmap? = null
+            while (isActive) {
+                val frame = handoff.take()
+                val decodeStartTimestamp = SystemClock.uptimeMillis()
+                val receivedTimestamp = frame.receivedTimestamp
+                // Only reuse bitmaps that were replaced a while ago, so they're surely not being drawn anymore
+                val reusableBitmap = if (replacedBitmaps.size >= REUSE_DELAY_FRAMES) {
+                    replacedBitmaps.removeFirst().takeUnless { bitmap ->
+                        synchronized(retainedBitmaps) { retainedBitmaps.remove(bitmap) }
+                    }
+                } else {
+                    null
                 }
-            } catch (e: HttpClient.HttpException) {
-                Log.e(TAG, "MJPEG streaming from $url failed", e)
-                // No point in continuing if the server returned failure
-                break
-            } catch (e: IOException) {
-                Log.e(TAG, "MJPEG streaming from $url was interrupted", e)
+                val bitmap = decodeFrame(frame, options, reusableBitmap)
+                handoff.recycle(frame)
+                if (bitmap == null) {
+                    Log.d(TAG, "Failed to decode MJPEG frame from ${key.url}")
+                    reusableBitmap?.let { replacedBitmaps.addFirst(it) }
+                    continue
+                }
+                withContext(Dispatchers.Main) {
+                    viewers.forEach { viewer -> viewer.view.setImageBitmap(bitmap) }
+                    currentBitmap = bitmap
+                    if (viewers.isNotEmpty()) {
+                        updateViewerRequirements()
+                    }
+                }
+                shownBitmap?.let { replacedBitmaps.addLast(it) }
+                shownBitmap = bitmap
+                onFrameShown(SystemClock.uptimeMillis() - receivedTimestamp)
+                // Frames received while waiting replace each other, so the newest one is shown next
+                delay(decodeStartTimestamp + minFrameIntervalMs - SystemClock.uptimeMillis())
+            }
+        }
+
+        private fun decodeFrame(frame: MjpegFrame, options: BitmapFactory.Options, reusableBitmap: Bitmap?): Bitmap? {
+            options.inJustDecodeBounds = true
+            options.inBitmap = null
+            BitmapFactory.decodeByteArray(frame.data, 0, frame.length, options)
+            val sourceWidth = options.outWidth
+            val sourceHeight = options.outHeight
+            if (sourceWidth <= 0 || sourceHeight <= 0) {
+                return null
+            }
+
+            // The views scale the frame to fit, so subsample as long as the frame covers them in one dimension
+            var sampleSize = 1
+            if (!fullResolution) {
+                while (coversViews(sourceWidth / (sampleSize * 2), sourceHeight / (sampleSize * 2))) {
+                    sampleSize *= 2
+                }
+            }
+            val decodedWidth = (sourceWidth + sampleSize - 1) / sampleSize
+            val decodedHeight = (sourceHeight + sampleSize - 1) / sampleSize
+
+            options.inJustDecodeBounds = false
+            options.inSampleSize = sampleSize
+            // JPEGs can't contain transparency, so there's no need to spend memory on an alpha channel
+            options.inPreferredConfig = Bitmap.Config.RGB_565
+            options.inMutable = true
+            val neededBytes = BitmapPool.byteCountOf(decodedWidth, decodedHeight, Bitmap.Config.RGB_565)
+            options.inBitmap = reusableBitmap?.takeIf { bitmap -> bitmap.allocationByteCount >= neededBytes }
+            return try {
+                BitmapFactory.decodeByteArray(frame.data, 0, frame.length, options)
+            } catch (e: IllegalArgumentException) {
+                // The bitmap couldn't be reused, so decode into a new one
+                options.inBitmap = null
+                BitmapFactory.decodeByteArray(frame.data, 0, frame.length, options)
+            }
+        }
+
+        private fun coversViews(width: Int, height: Int): Boolean {
+            val targetWidth = viewWidth
+            val targetHeight = viewHeight
+            return (targetWidth > 0 && width >= targetWidth) || (targetHeight > 0 && height >= targetHeight)
+        }
+
+        @Synchronized
+        private fun onFrameReceived(droppedPreviousFrame: Boolean) {
+            receivedFrames++
+            if (droppedPreviousFrame) {
+                droppedFrames++
+            }
+        }
+
+        private fun onFrameShown(latencyMs: Long) {
+            val statistics = synchronized(this) {
+                decodedFrames++
+                totalLatencyMs += latencyMs
+                maxLatencyMs = maxOf(maxLatencyMs, latencyMs)
+                if (decodedFrames % STATISTICS_LOG_INTERVAL == 0L) getStatistics() else null
+            }
+            statistics?.let { Log.d(TAG, "Streaming from ${key.url}: $it") }
+        }
+    }
+
+    /**
+     * Hands the newest frame from the reader to the decoder. A frame that wasn't taken by the decoder
+     * when a newer one arrives is dropped. Frame buffers are reused once they were decoded or dropped.
+     */
+    private class FrameHandoff {
+        private val freeFrames = ArrayDeque<MjpegFrame>()
+        private var pendingFrame: MjpegFrame? = null
+        private val frameAvailable = Channel<Unit>(Channel.CONFLATED)
+
+        @Synchronized
+        fun obtain() = freeFrames.removeFirstOrNull() ?: MjpegFrame()
+
+        @Synchronized
+        fun recycle(frame: MjpegFrame) {
+            freeFrames.addLast(frame)
+        }
+
+        /**
+         * @return Whether a frame was dropped in favor of the given one
+         */
+        fun publish(frame: MjpegFrame): Boolean {
+            val droppedFrame = synchronized(this) {
+                val previousFrame = pendingFrame
+                pendingFrame = frame
+                previousFrame?.let { freeFrames.addLast(it) }
+                previousFrame != null
+            }
+            frameAvailable.trySend(Unit)
+            return droppedFrame
+        }
+
+        suspend fun take(): MjpegFrame {
+            while (true) {
+                synchronized(this) {
+                    pendingFrame?.let { frame ->
+                        pendingFrame = null
+                        return frame
+                    }
+                }
+                frameAvailable.receive()
             }
         }
     }
 
     companion object {
         private val TAG = MjpegStreamer::class.java.simpleName
+        private const val STATISTICS_LOG_INTERVAL = 100L
+        private const val REUSE_DELAY_FRAMES = 2
+
+        // Streams that are currently shown, only accessed from the main thread
+        private val streams = mutableMapOf<StreamKey, SharedStream>()
     }
 }
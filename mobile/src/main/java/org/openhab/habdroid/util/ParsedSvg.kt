@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.util
+
+import android.content.res.Resources
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.util.DisplayMetrics
+import androidx.annotation.ColorInt
+import com.caverock.androidsvg.RenderOptions
+import com.caverock.androidsvg.SVG
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStream
+import kotlin.math.max
+import kotlin.math.round
+
+/**
+ * SVG document that was parsed once and can be rendered to bitmaps of different sizes and colors.
+ */
+class ParsedSvg private constructor(private val svg: SVG, val byteCount: Int) {
+    private val documentWidth: Float
+    private val documentHeight: Float
+
+    init {
+        if (svg.documentViewBox == null && svg.documentWidth > 0 && svg.documentHeight > 0) {
+            svg.setDocumentViewBox(0F, 0F, svg.documentWidth, svg.documentHeight)
+        }
+        svg.renderDPI = DisplayMetrics.DENSITY_DEFAULT.toFloat()
+        documentWidth = svg.documentWidth
+        documentHeight = svg.documentHeight
+    }
+
+    // Rendering modifies the document size, so don't render from multiple threads at once
+    @Synchronized
+    @Throws(IOException::class)
+    fun toBitmap(
+        targetSize: Int,
+        @ColorInt fallbackColor: Int,
+        conversionPolicy: ImageConversionPolicy,
+        bitmapPool: BitmapPool? = null
+    ): Bitmap = try {
+        val displayMetrics = Resources.getSystem().displayMetrics
+        var density: Float? = displayMetrics.density
+        val targetSizeFloat = targetSize.toFloat()
+
+        if (conversionPolicy == ImageConversionPolicy.ForceTargetSize ||
+            (conversionPolicy == ImageConversionPolicy.PreferTargetSize && svg.documentViewBox != null)
+        ) {
+            svg.setDocumentWidth("100%")
+            svg.setDocumentHeight("100%")
+        } else {
+            // Restore the size of the document, as a previous rendering might have changed it
+            svg.setDocumentWidth(if (documentWidth < 0) "100%" else "${documentWidth}px")
+            svg.setDocumentHeight(if (documentHeight < 0) "100%" else "${documentHeight}px")
+        }
+
+        var docWidth = svg.documentWidth * displayMetrics.density
+        var docHeight = svg.documentHeight * displayMetrics.density
+
+        if (docWidth < 0 || docHeight < 0) {
+            val aspectRatio = svg.documentAspectRatio
+            if (aspectRatio > 0) {
+                val heightForAspect = targetSizeFloat / aspectRatio
+                val widthForAspect = targetSizeFloat * aspectRatio
+                if (widthForAspect < heightForAspect) {
+                    docWidth = widthForAspect
+                    docHeight = targetSizeFloat
+                } else {
+                    docWidth = targetSizeFloat
+                    docHeight = heightForAspect
+                }
+            } else {
+                docWidth = targetSizeFloat
+                docHeight = targetSizeFloat
+            }
+
+            // we didn't take density into account anymore when calculating docWidth
+            // and docHeight, so don't scale with it and just let the renderer
+            // figure out the scaling
+            density = null
+        }
+
+        if (docWidth > targetSizeFloat || docHeight > targetSizeFloat) {
+            val widthScaler = max(1F, docWidth / targetSizeFloat)
+            val heightScaler = max(1F, docHeight / targetSizeFloat)
+            val scaler = max(widthScaler, heightScaler)
+            docWidth /= scaler
+            docHeight /= scaler
+            if (density != null) {
+                density /= scaler
+            }
+        }
+
+        val width = round(docWidth).toInt()
+        val height = round(docHeight).toInt()
+        val bitmap = bitmapPool?.get(width, height, Bitmap.Config.ARGB_8888)?.apply {
+            reconfigure(width, height, Bitmap.Config.ARGB_8888)
+            eraseColor(Color.TRANSPARENT)
+            this.density = displayMetrics.densityDpi
+        } ?: Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        val canvas = Canvas(bitmap)
+        if (density != null) {
+            canvas.scale(density, density)
+        }
+
+        val options = RenderOptions()
+        options.css(" * { color: ${String.format("#%06X", 0xFFFFFF and fallbackColor)}; }")
+        svg.renderToCanvas(canvas, options)
+        bitmap
+    } catch (e: Exception) {
+        throw IOException("SVG rendering failed", e)
+    }
+
+    companion object {
+        @Throws(IOException::class)
+        fun parse(input: InputStream): ParsedSvg = try {
+            val data = input.readBytes()
+            ParsedSvg(SVG.getFromInputStream(ByteArrayInputStream(data)), data.size)
+        } catch (e: Exception) {
+            throw IOException("SVG decoding failed", e)
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.benchmark
+
+import java.util.concurrent.TimeUnit
+import org.json.JSONObject
+import org.openhab.habdroid.model.IconFormat
+import org.openhab.habdroid.model.Item
+import org.openhab.habdroid.model.ParsedState
+import org.openhab.habdroid.model.Widget
+import org.openhab.habdroid.model.toItem
+import org.openhab.habdroid.model.toParsedState
+import org.openhab.habdroid.model.toWidget
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+
+/**
+ * Measures the per-widget work done for page loads and state update events.
+ * Each operation processes all widgets of a page with the given number of widgets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class ItemStateBenchmark {
+    @Param("10", "100", "1000", "5000")
+    @JvmField
+    var widgetCount = 0
+
+    private lateinit var itemJson: List<JSONObject>
+    private lateinit var states: List<String>
+    private lateinit var widgets: List<Widget>
+    private lateinit var events: List<JSONObject>
+    private lateinit var updatedWidgets: List<Widget>
+
+    @Setup
+    fun setUp() {
+        itemJson = (0 until widgetCount).map { index -> SyntheticSitemap.createItemJson(index) }
+        states = (0 until widgetCount).map { index -> SyntheticSitemap.createState(index) }
+        widgets = (0 until widgetCount).map { index -> SyntheticSitemap.createWidgetJson(index).toWidget(null) }
+        events = (0 until widgetCount).map { index -> SyntheticSitemap.createWidgetJson(index, stateOffset = 1) }
+        updatedWidgets = widgets.mapIndexed { index, widget -> Widget.updateFromEvent(widget, events[index]) }
+    }
+
+    @Benchmark
+    fun parseItems(): List<Item> = itemJson.map { json -> json.toItem() }
+
+    @Benchmark
+    fun parseStates(): List<ParsedState?> = states.map { state -> state.toParsedState() }
+
+    @Benchmark
+    fun parseStatesAsNumber(): List<ParsedState.NumberState?> = states.map { state ->
+        state.toParsedState()?.asNumber
+    }
+
+    @Benchmark
+    fun applyUpdateEvents(): List<Widget> = widgets.mapIndexed { index, widget ->
+        Widget.updateFromEvent(widget, events[index])
+    }
+
+    @Benchmark
+    fun detectWidgetChanges(): List<Set<Widget.Change>?> = widgets.mapIndexed { index, widget ->
+        Widget.changesBetween(widget, updatedWidgets[index])
+    }
+
+    /**
+     * Values derived from the widgets when fully binding them after an update. Views can't be created
+     * in JVM tests, so the work done by the views themselves isn't included.
+     */
+    @Benchmark
+    fun deriveFullBindValues(): Int = updatedWidgets.sumOf { widget -> deriveBindValues(widget, ALL_CHANGES) }
+
+    /**
+     * Like [deriveFullBindValues], but only for the aspects that changed, like partial binds do.
+     */
+    @Benchmark
+    fun derivePartialBindValues(): Int = widgets.withIndex().sumOf { (index, widget) ->
+        val updatedWidget = updatedWidgets[index]
+        val changes = Widget.changesBetween(widget, updatedWidget) ?: ALL_CHANGES
+        deriveBindValues(updatedWidget, changes)
+    }
+
+    @Benchmark
+    fun buildIconUrls(): List<String?> = widgets.map { widget ->
+        widget.icon?.toUrl(true, IconFormat.Svg, 64)
+    }
+
+    private fun deriveBindValues(widget: Widget, changes: Set<Widget.Change>): Int {
+        var result = 0
+        if (Widget.Change.Label in changes) {
+            result += widget.label.hashCode() + widget.labelColor.hashCode()
+        }
+        if (Widget.Change.State in changes) {
+            result += widget.stateFromLabel?.replace("\n", " ").hashCode() + widget.valueColor.hashCode()
+            result += widget.mappingsOrItemOptions.size
+        }
+        if (Widget.Change.Icon in changes) {
+            result += widget.icon?.toUrl(true, IconFormat.Svg, 64).hashCode()
+        }
+        return result
+    }
+
+    companion object {
+        private val ALL_CHANGES = Widget.Change.entries.toSet()
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.benchmark
+
+import android.util.JsonReader
+import java.io.StringReader
+import java.util.concurrent.TimeUnit
+import org.json.JSONObject
+import org.openhab.habdroid.model.Widget
+import org.openhab.habdroid.model.WidgetDataSource
+import org.openhab.habdroid.model.WidgetTree
+import org.openhab.habdroid.model.collectWidgets
+import org.openhab.habdroid.model.readWidget
+import org.openhab.habdroid.util.forEachChildElement
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.xmlpull.v1.XmlPullParserFactory
+
+/**
+ * Measures decoding sitemap pages into widgets and indexing the visible widgets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class SitemapParsingBenchmark {
+    @Param("10", "100", "1000", "5000")
+    @JvmField
+    var widgetCount = 0
+
+    internal lateinit var pageJson: JSONObject
+    private lateinit var pageJsonString: String
+    private lateinit var pageXml: String
+    private lateinit var dataSource: WidgetDataSource
+    private val xmlParserFactory = XmlPullParserFactory.newInstance()
+
+    @Setup
+    fun setUp() {
+        pageJson = SyntheticSitemap.createPageJson(widgetCount)
+        pageJsonString = pageJson.toString()
+        pageXml = SyntheticSitemap.createPageXml(widgetCount)
+        dataSource = WidgetDataSource()
+        dataSource.setSourceJson(pageJson)
+    }
+
+    @Benchmark
+    fun collectWidgetsFromJsonObject(): List<Widget> {
+        val widgets = ArrayList<Widget>()
+        val widgetsJson = JSONObject(pageJsonString).getJSONArray("widgets")
+        (0 until widgetsJson.length()).forEach { index ->
+            widgets.addAll(widgetsJson.getJSONObject(index).collectWidgets(null))
+        }
+        return widgets
+    }
+
+    @Benchmark
+    fun readPageFromJsonStream(): List<Widget> {
+        val streamedDataSource = WidgetDataSource()
+        streamedDataSource.setSourceJson(JsonReader(StringReader(pageJsonString)))
+        return streamedDataSource.widgets
+    }
+
+    @Benchmark
+    fun readWidgetsFromXml(): List<Widget> {
+        val parser = xmlParserFactory.newPullParser()
+        parser.setInput(StringReader(pageXml))
+        parser.nextTag()
+        val widgets = ArrayList<Widget>()
+        parser.forEachChildElement { name ->
+            if (name == "widget") {
+                parser.readWidget(null, widgets)
+            }
+        }
+        return widgets
+    }
+
+    /**
+     * The data source caches its visible widgets, so this uses a fresh data source for every call.
+     */
+    @Benchmark
+    fun filterVisibleWidgets(source: FreshDataSource): List<Widget> = source.dataSource.widgets
+
+    @Benchmark
+    fun buildWidgetTree(): WidgetTree = WidgetTree(dataSource.widgets)
+
+    @State(Scope.Thread)
+    open class FreshDataSource {
+        lateinit var dataSource: WidgetDataSource
+
+        @Setup(Level.Invocation)
+        fun setUp(benchmark: SitemapParsingBenchmark) {
+            dataSource = WidgetDataSource()
+            dataSource.setSourceJson(benchmark.pageJson)
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.benchmark
+
+import org.json.JSONArray
+import org.json.JSONObject
+
+/**
+ * Generates sitemap pages of arbitrary size for benchmarking.
+ *
+ * Pages consist of frames with nine widgets each, using a mix of the most common widget and item types.
+ */
+object SyntheticSitemap {
+    private const val BASE_URL = "http://openhab.local:8080/rest"
+    private const val WIDGETS_PER_FRAME = 10
+
+    fun createPageJson(widgetCount: Int): JSONObject {
+        val frames = JSONArray()
+        var frame: JSONObject? = null
+        (0 until widgetCount).forEach { index ->
+            if (index % WIDGETS_PER_FRAME == 0) {
+                frame = JSONObject()
+                    .put("widgetId", widgetId(index))
+                    .put("type", "Frame")
+                    .put("label", "Frame $index")
+                    .put("icon", "oh:frame")
+                    .put("mappings", JSONArray())
+                    .put("widgets", JSONArray())
+                frames.put(frame)
+            } else {
+                frame?.getJSONArray("widgets")?.put(createWidgetJson(index))
+            }
+        }
+        return JSONObject()
+            .put("id", "demo")
+            .put("title", "Demo")
+            .put("link", "$BASE_URL/sitemaps/demo/demo")
+            .put("leaf", false)
+            .put("timeout", false)
+            .put("widgets", frames)
+    }
+
+    fun createWidgetJson(index: Int, stateOffset: Int = 0): JSONObject {
+        val type = WidgetType.entries[index % WidgetType.entries.size]
+        val state = type.state(index + stateOffset)
+        val widget = JSONObject()
+            .put("widgetId", widgetId(index))
+            .put("type", type.widgetType)
+            .put("label", "${type.widgetType} $index [$state]")
+            .put("icon", type.icon)
+            .put("state", state)
+            .put("mappings", JSONArray())
+            .put("item", createItemJson(index, stateOffset))
+            .put("widgets", JSONArray())
+        if (type == WidgetType.Selection) {
+            widget.put(
+                "mappings",
+                JSONArray()
+                    .put(JSONObject().put("command", "1").put("label", "One"))
+                    .put(JSONObject().put("command", "2").put("label", "Two"))
+            )
+        }
+        if (type == WidgetType.Group) {
+            widget.put(
+                "linkedPage",
+                JSONObject()
+                    .put("id", "page$index")
+                    .put("title", "Group $index")
+                    .put("icon", type.icon)
+                    .put("link", "$BASE_URL/sitemaps/demo/page$index")
+                    .put("leaf", true)
+            )
+        }
+        if (type == WidgetType.Slider || type == WidgetType.Setpoint) {
+            widget.put("minValue", 0).put("maxValue", 100).put("step", 1)
+        }
+        return widget
+    }
+
+    fun createItemJson(index: Int, stateOffset: Int = 0): JSONObject {
+        val type = WidgetType.entries[index % WidgetType.entries.size]
+        val item = JSONObject()
+            .put("link", "$BASE_URL/items/${itemName(index)}")
+            .put("state", type.state(index + stateOffset))
+            .put("type", type.itemType)
+            .put("name", itemName(index))
+            .put("label", "${type.itemType} $index")
+            .put("category", type.icon)
+            .put("tags", JSONArray())
+            .put("groupNames", JSONArray().put("Group${index / WIDGETS_PER_FRAME}"))
+        type.pattern?.let { pattern ->
+            item.put(
+                "stateDescription",
+                JSONObject().put("pattern", pattern).put("readOnly", false).put("options", JSONArray())
+            )
+        }
+        return item
+    }
+
+    fun createState(index: Int): String {
+        val type = WidgetType.entries[index % WidgetType.entries.size]
+        return type.state(index)
+    }
+
+    /**
+     * Creates a page in the format of the XML API of openHAB 1.x
+     */
+    fun createPageXml(widgetCount: Int): String {
+        val xml = StringBuilder()
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+        xml.append("<page><id>demo</id><title>Demo</title><link>$BASE_URL/sitemaps/demo/demo</link><leaf>false</leaf>")
+        (0 until widgetCount).forEach { index ->
+            if (index % WIDGETS_PER_FRAME == 0) {
+                if (index > 0) {
+                    xml.append("</widget>")
+                }
+                xml.append("<widget><widgetId>${widgetId(index)}</widgetId><type>Frame</type>")
+                xml.append("<label>Frame $index</label><icon>frame</icon>")
+            } else {
+                val type = WidgetType.entries[index % WidgetType.entries.size]
+                val state = type.state(index)
+                xml.append("<widget><widgetId>${widgetId(index)}</widgetId><type>${type.widgetType}</type>")
+                xml.append("<label>${type.widgetType} $index [$state]</label><icon>${type.icon}</icon>")
+                if (type == WidgetType.Selection) {
+                    xml.append("<mapping><command>1</command><label>One</label></mapping>")
+                    xml.append("<mapping><command>2</command><label>Two</label></mapping>")
+                }
+                // Item types have no dimension and an "Item" suffix in openHAB 1.x
+                val itemType = type.itemType.substringBefore(':') + "Item"
+                xml.append("<item><type>$itemType</type><name>${itemName(index)}</name>")
+                xml.append("<state>$state</state><link>$BASE_URL/items/${itemName(index)}</link></item>")
+                if (type == WidgetType.Group) {
+                    xml.append("<linkedPage><id>page$index</id><title>Group $index</title><icon>${type.icon}</icon>")
+                    xml.append("<link>$BASE_URL/sitemaps/demo/page$index</link><leaf>true</leaf></linkedPage>")
+                }
+                xml.append("</widget>")
+            }
+        }
+        if (widgetCount > 0) {
+            xml.append("</widget>")
+        }
+        xml.append("</page>")
+        return xml.toString()
+    }
+
+    private fun widgetId(index: Int) = "0000_$index"
+
+    private fun itemName(index: Int) = "Item$index"
+
+    private enum class WidgetType(
+        val widgetType: String,
+        val itemType: String,
+        val icon: String,
+        val pattern: String?,
+        val state: (Int) -> String
+    ) {
+        Switch("Switch", "Switch", "switch", null, { index -> if (index % 2 == 0) "ON" else "OFF" }),
+        Slider("Slider", "Dimmer", "slider", "%d %%", { index -> "${index % 101}" }),
+        Text("Text", "Number:Temperature", "temperature", "%.1f %unit%", { index -> "${index % 30}.5 °C" }),
+        Colorpicker("Colorpicker", "Color", "colorpicker", null, { index -> "${index % 360},100,${index % 101}" }),
+        Setpoint("Setpoint", "Number", "heating", "%.1f", { index -> "${index % 25}.0" }),
+        Selection("Selection", "String", "text", "%s", { index -> "${index % 2 + 1}" }),
+        Group("Group", "Group", "group", null, { index -> "${index % 5}" }),
+        DateTime("Text", "DateTime", "time", null, { index -> "2024-01-%02dT12:00:00".format(index % 28 + 1) }),
+        Location("Mapview", "Location", "map", null, { index -> "52.${index % 1000},13.${index % 1000}" })
+    }
+}
@@ -15,6 +15,7 @@ package org.openhab.habdroid.model
 
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
 import org.junit.Assert.assertTrue
 import org.junit.Test
 
@@ -66,4 +67,32 @@ class ParsedStateTest {
         val hsvTwo = HsvState(100f, 100f, 100f)
         assertEquals(hsvOne, hsvTwo)
     }
+
+    @Test
+    fun testStateIsParsedLazily() {
+        var parseCount = 0
+        ParsedState.parseListener = { parseCount++ }
+        try {
+            val state = "10,20,30".toParsedState()
+            assertEquals("10,20,30", state?.asString)
+            assertEquals("Accessing the string must not parse anything", 0, parseCount)
+
+            assertEquals(30, state?.asBrightness)
+            assertEquals(30, state?.asBrightness)
+            assertEquals(HsvState(10f, 0.2f, 0.3f), state?.asHsv)
+            assertEquals("Each interpretation must only be parsed once", 2, parseCount)
+        } finally {
+            ParsedState.parseListener = null
+        }
+    }
+
+    @Test
+    fun testStateEqualityIgnoresParsedInterpretations() {
+        val parsed = "42".toParsedState()
+        val unparsed = "42".toParsedState()
+        assertEquals(ParsedState.NumberState(42f), parsed?.asNumber)
+        assertEquals(parsed, unparsed)
+        assertEquals(parsed.hashCode(), unparsed.hashCode())
+        assertNotEquals(parsed, "43".toParsedState())
+    }
 }
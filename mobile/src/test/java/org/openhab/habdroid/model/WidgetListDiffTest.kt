@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.model
+
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class WidgetListDiffTest {
+    @Test
+    fun testIdenticalListsHaveNoChanges() {
+        val widgets = createWidgets("a", "b", "c")
+        val diff = WidgetListDiff.compute(widgets, createWidgets("a", "b", "c"))
+        assertTrue(diff.isEmpty)
+        assertFalse(diff.hasStructuralChanges)
+    }
+
+    @Test
+    fun testChangedLabelIsReportedAsChange() {
+        val oldWidgets = createWidgets("a", "b", "c")
+        val newWidgets = oldWidgets.toMutableList()
+        newWidgets[1] = createWidget("b", "Other label")
+        val diff = WidgetListDiff.compute(oldWidgets, newWidgets)
+        assertFalse(diff.hasStructuralChanges)
+        assertEquals(listOf("b"), diff.changed.map { it.id })
+    }
+
+    @Test
+    fun testInsertionAndRemovalDoNotMoveOtherWidgets() {
+        val diff = WidgetListDiff.compute(createWidgets("a", "b", "c", "d"), createWidgets("x", "a", "c", "d"))
+        assertEquals(listOf("x"), diff.inserted.map { it.id })
+        assertEquals(listOf("b"), diff.removed)
+        assertTrue(diff.moved.isEmpty())
+        assertTrue(diff.changed.isEmpty())
+    }
+
+    @Test
+    fun testReorderingIsReportedAsMove() {
+        val diff = WidgetListDiff.compute(createWidgets("a", "b", "c"), createWidgets("a", "c", "b"))
+        assertTrue(diff.hasStructuralChanges)
+        assertTrue(diff.inserted.isEmpty())
+        assertTrue(diff.removed.isEmpty())
+        assertEquals(listOf("c", "b"), diff.moved.map { it.id })
+    }
+
+    @Test
+    fun testParentChangeIsReportedAsMove() {
+        val oldWidgets = JSONObject()
+            .put("widgetId", "frame1")
+            .put("type", "Frame")
+            .put("widgets", JSONArray().put(JSONObject().put("widgetId", "a").put("type", "Text")))
+            .collectWidgets(null) + createWidget("frame2", type = "Frame")
+        val newWidgets = listOf(oldWidgets[0], oldWidgets[2], oldWidgets[1].copy(parentId = "frame2"))
+        val diff = WidgetListDiff.compute(oldWidgets, newWidgets)
+        assertEquals(listOf("frame2", "a"), diff.moved.map { it.id })
+    }
+
+    private fun createWidgets(vararg ids: String) = ids.map { id -> createWidget(id) }
+
+    private fun createWidget(id: String, label: String = "Label $id", type: String = "Text") = JSONObject()
+        .put("widgetId", id)
+        .put("type", type)
+        .put("label", label)
+        .collectWidgets(null)
+        .first()
+}
@@ -13,17 +13,20 @@
 
 package org.openhab.habdroid.model
 
+import android.util.JsonReader
 import java.io.StringReader
 import java.security.InvalidParameterException
-import javax.xml.parsers.DocumentBuilderFactory
+import org.json.JSONArray
 import org.json.JSONObject
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertNotNull
 import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
-import org.w3c.dom.Node
-import org.xml.sax.InputSource
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserFactory
 
 class WidgetTest {
     private lateinit var sutXml: List<Widget>
@@ -35,7 +38,7 @@ class WidgetTest {
     @Before
     @Throws(Exception::class)
     fun parse_createsWidget() {
-        sutXml = createXmlNode().collectWidgets(null)
+        sutXml = ArrayList<Widget>().also { createXmlParser().readWidget(null, it) }
         sut1 = createJsonObject(1).collectWidgets(null)
         sut2 = createJsonObject(2).collectWidgets(null)
         sut3 = createJsonObject(3).collectWidgets(null)
@@ -238,8 +241,103 @@ class WidgetTest {
         assertEquals(null, sut2[0].encoding)
     }
 
+    @Test
+    fun testStreamedWidgetsMatchJsonObject() {
+        listOf(1, 2, 3).forEach { id ->
+            val json = createJsonObject(id)
+            val streamed = ArrayList<Widget>()
+            JsonReader(StringReader("[$json]")).readWidgets(null, streamed)
+            assertEquals(json.collectWidgets(null), streamed)
+        }
+    }
+
+    @Test
+    fun testStreamedWidgetsWithIdAfterChildren() {
+        val json =
+            """
+            [ {
+              "type": "Frame",
+              "widgets": [ {
+                "widgetId": "child",
+                "type": "Switch",
+                "widgets": [ { "widgetId": "grandchild", "type": "Text" } ]
+              } ],
+              "widgetId": "parent"
+            } ]
+            """
+        val streamed = ArrayList<Widget>()
+        JsonReader(StringReader(json)).readWidgets(null, streamed)
+        assertEquals(listOf("parent", "child", "grandchild"), streamed.map { it.id })
+        assertEquals(listOf(null, "parent", "child"), streamed.map { it.parentId })
+    }
+
+    @Test
+    fun testStreamedPageMatchesJsonObject() {
+        val page = JSONObject()
+            .put("id", "demo")
+            .put("title", "Demo")
+            .put("link", "http://localhost/rest/sitemaps/demo/demo")
+            .put("timeout", false)
+            .put("widgets", JSONArray().put(createJsonObject(1)).put(createJsonObject(3)))
+        val expected = WidgetDataSource()
+        expected.setSourceJson(page)
+        val streamed = WidgetDataSource()
+        streamed.setSourceJson(JsonReader(StringReader(page.toString())))
+
+        assertEquals(expected.widgets, streamed.widgets)
+        assertEquals(expected.id, streamed.id)
+        assertEquals(expected.title, streamed.title)
+        assertEquals(expected.link, streamed.link)
+        assertFalse(streamed.isTimeout)
+    }
+
+    @Test
+    fun testStreamedPageTimeout() {
+        val streamed = WidgetDataSource()
+        streamed.setSourceJson(JsonReader(StringReader("""{ "id": "demo", "timeout": true, "widgets": [] }""")))
+        assertTrue(streamed.isTimeout)
+        assertEquals(emptyList<Widget>(), streamed.widgets)
+    }
+
+    @Test
+    fun testChangesBetweenStateUpdates() {
+        val widget = createSwitchJson("OFF").toWidget(null)
+        val updated = createSwitchJson("ON").toWidget(null)
+        assertEquals(emptySet<Widget.Change>(), Widget.changesBetween(widget, widget))
+        // The icon depends on the state
+        assertEquals(setOf(Widget.Change.State, Widget.Change.Icon), Widget.changesBetween(widget, updated))
+        val staticIcon = createSwitchJson("OFF").put("staticIcon", true).toWidget(null)
+        val staticIconUpdated = createSwitchJson("ON").put("staticIcon", true).toWidget(null)
+        assertEquals(setOf(Widget.Change.State), Widget.changesBetween(staticIcon, staticIconUpdated))
+
+        val relabeled = createSwitchJson("ON").put("label", "Other [ON]").put("icon", "light").toWidget(null)
+        assertEquals(
+            setOf(Widget.Change.State, Widget.Change.Label, Widget.Change.Icon),
+            Widget.changesBetween(widget, relabeled)
+        )
+        val hidden = createSwitchJson("OFF").put("visibility", false).toWidget(null)
+        assertEquals(setOf(Widget.Change.Visibility), Widget.changesBetween(widget, hidden))
+    }
+
+    @Test
+    fun testChangesBetweenOtherProperties() {
+        val widget = createSwitchJson("OFF").toWidget(null)
+        val withMappings = createSwitchJson("OFF")
+            .put("mappings", JSONArray().put(JSONObject().put("command", "ON").put("label", "On")))
+            .toWidget(null)
+        assertNull(Widget.changesBetween(widget, withMappings))
+    }
+
+    private fun createSwitchJson(state: String) = JSONObject()
+        .put("widgetId", "switch")
+        .put("type", "Switch")
+        .put("label", "Light [$state]")
+        .put("icon", "switch")
+        .put("state", state)
+        .put("item", JSONObject().put("name", "Light").put("type", "Switch").put("state", state))
+
     @Throws(Exception::class)
-    private fun createXmlNode(): Node {
+    private fun createXmlParser(): XmlPullParser {
         val xml =
             """
             <widget>
@@ -282,10 +380,10 @@ class WidgetTest {
                 </widget>"
              </widget>
             """.trimIndent()
-        val dbf = DocumentBuilderFactory.newInstance()
-        val builder = dbf.newDocumentBuilder()
-        val document = builder.parse(InputSource(StringReader(xml)))
-        return document.firstChild
+        val parser = XmlPullParserFactory.newInstance().newPullParser()
+        parser.setInput(StringReader(xml))
+        parser.nextTag()
+        return parser
     }
 
     /**
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.model
+
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class WidgetTreeTest {
+    private val widgets = JSONObject()
+        .put("widgetId", "frame")
+        .put("type", "Frame")
+        .put(
+            "widgets",
+            JSONArray()
+                .put(JSONObject().put("widgetId", "a").put("type", "Text"))
+                .put(
+                    JSONObject()
+                        .put("widgetId", "b")
+                        .put("type", "Text")
+                        .put("visibility", false)
+                )
+        )
+        .collectWidgets(null)
+
+    @Test
+    fun testLookups() {
+        val tree = WidgetTree(widgets)
+        assertEquals(1, tree.positionOf("a"))
+        assertEquals(-1, tree.positionOf("unknown"))
+        assertEquals(-1, tree.positionOf(null))
+        assertEquals("frame", tree.getById("frame")?.id)
+        assertEquals(listOf("a", "b"), tree.childrenOf("frame").map { it.id })
+        assertTrue(tree.childrenOf("a").isEmpty())
+    }
+
+    @Test
+    fun testShownState() {
+        val tree = WidgetTree(widgets)
+        assertTrue(tree.isShown(0))
+        assertTrue(tree.isShown(1))
+        assertFalse(tree.isShown(2))
+        assertEquals(0, tree.firstShownPosition)
+    }
+
+    @Test
+    fun testHidingLastVisibleChildHidesFrame() {
+        val tree = WidgetTree(widgets)
+        val changed = tree.replace(1, widgets[1].copy(visibility = false))
+        assertEquals(listOf(0), changed)
+        assertFalse(tree.isShown(0))
+        assertFalse(tree.isShown(1))
+        assertEquals(-1, tree.firstShownPosition)
+    }
+
+    @Test
+    fun testHidingFrameHidesChildren() {
+        val tree = WidgetTree(widgets)
+        val changed = tree.replace(0, widgets[0].copy(visibility = false))
+        assertEquals(listOf(1), changed)
+        assertFalse(tree.isShown(1))
+
+        tree.replace(0, widgets[0])
+        assertTrue(tree.isShown(0))
+        assertTrue(tree.isShown(1))
+    }
+
+    @Test
+    fun testChangeWithoutVisibilityChangeAffectsNoOtherWidgets() {
+        val tree = WidgetTree(widgets)
+        val changed = tree.replace(1, widgets[1].copy(rawLabel = "Changed"))
+        assertTrue(changed.isEmpty())
+        assertEquals("Changed", tree[1].label)
+        assertEquals("Changed", tree.childrenOf("frame").first().label)
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.util
+
+import android.graphics.Bitmap
+import com.nhaarman.mockitokotlin2.doReturn
+import com.nhaarman.mockitokotlin2.mock
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class BitmapPoolTest {
+    private fun createBitmap(byteCount: Int, mutable: Boolean = true) = mock<Bitmap> {
+        on { allocationByteCount } doReturn byteCount
+        on { isMutable } doReturn mutable
+    }
+
+    @Test
+    fun testReusesBitmapsOfSuitableSize() {
+        val pool = BitmapPool(1000)
+        val small = createBitmap(100)
+        val large = createBitmap(400)
+        pool.put(small)
+        pool.put(large)
+
+        // 10x10 ARGB_8888 needs 400 bytes, which the small bitmap can't hold
+        assertSame(large, pool.get(10, 10, Bitmap.Config.ARGB_8888))
+        assertNull(pool.get(10, 10, Bitmap.Config.ARGB_8888))
+        // The small bitmap would fit, but waste too much memory
+        assertNull(pool.get(2, 2, Bitmap.Config.ARGB_8888))
+        assertSame(small, pool.get(5, 5, Bitmap.Config.ARGB_8888))
+    }
+
+    @Test
+    fun testBitmapsInUseAreNotPooled() {
+        val pool = BitmapPool(1000)
+        val bitmap = createBitmap(400)
+        pool.acquire(bitmap)
+        pool.acquire(bitmap)
+        pool.release(bitmap)
+        pool.put(bitmap)
+        assertNull(pool.get(10, 10, Bitmap.Config.ARGB_8888))
+
+        pool.release(bitmap)
+        pool.put(bitmap)
+        assertSame(bitmap, pool.get(10, 10, Bitmap.Config.ARGB_8888))
+    }
+
+    @Test
+    fun testOldestBitmapsAreDroppedWhenFull() {
+        val pool = BitmapPool(1000)
+        val first = createBitmap(400)
+        val second = createBitmap(400)
+        val third = createBitmap(400)
+        pool.put(first)
+        pool.put(second)
+        pool.put(third)
+        pool.put(createBitmap(400, mutable = false))
+
+        assertSame(second, pool.get(10, 10, Bitmap.Config.ARGB_8888))
+        assertSame(third, pool.get(10, 10, Bitmap.Config.ARGB_8888))
+        assertNull(pool.get(10, 10, Bitmap.Config.ARGB_8888))
+    }
+}
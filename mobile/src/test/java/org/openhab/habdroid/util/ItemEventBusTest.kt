@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.util
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.awaitCancellation
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.UnconfinedTestDispatcher
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import org.openhab.habdroid.util.ItemEventBus.ItemEvent
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class ItemEventBusTest {
+    private var startCount = 0
+    private var stopCount = 0
+    private val sseTopics = mutableListOf<String>()
+    private var onEvent: ((ItemEvent) -> Unit)? = null
+
+    private fun TestScope.createBus() = ItemEventBus.Bus(backgroundScope) { sseTopic, onEvent ->
+        startCount++
+        sseTopics.add(sseTopic)
+        this@ItemEventBusTest.onEvent = onEvent
+        try {
+            awaitCancellation()
+        } finally {
+            stopCount++
+            this@ItemEventBusTest.onEvent = null
+        }
+    }
+
+    private fun sendCommand(itemName: String, state: String) {
+        onEvent?.invoke(ItemEvent(itemName, state, "openhab/items/$itemName/command"))
+    }
+
+    @Test
+    fun testSubscriptionIsSharedWhileCollected() = runTest(UnconfinedTestDispatcher()) {
+        val bus = createBus()
+        val first = launch { bus.events(null, null).collect { } }
+        val second = launch { bus.events(null, null).collect { } }
+        assertEquals("Subscribers must share one subscription", 1, startCount)
+
+        first.cancel()
+        assertEquals("Subscription must stay open while there are subscribers", 0, stopCount)
+        second.cancel()
+        assertEquals("Subscription must be closed with the last subscriber", 1, stopCount)
+        assertNull(onEvent)
+
+        val third = launch { bus.events(null, null).collect { } }
+        assertEquals("Subscription must be opened again for new subscribers", 2, startCount)
+        third.cancel()
+    }
+
+    @Test
+    fun testEventsAreFannedOutAndFiltered() = runTest(UnconfinedTestDispatcher()) {
+        val bus = createBus()
+        val allEvents = mutableListOf<String>()
+        val lightEvents = mutableListOf<String>()
+        val topicEvents = mutableListOf<String>()
+        val jobs = listOf(
+            launch { bus.events(null, null).collect { event -> allEvents.add(event.state) } },
+            launch { bus.events("Light", null).collect { event -> lightEvents.add(event.state) } },
+            launch { bus.events(null, Regex(".*/Door/.*")).collect { event -> topicEvents.add(event.state) } }
+        )
+
+        sendCommand("Light", "ON")
+        sendCommand("Door", "OPEN")
+        sendCommand("Light", "OFF")
+
+        assertEquals(listOf("ON", "OPEN", "OFF"), allEvents)
+        assertEquals(listOf("ON", "OFF"), lightEvents)
+        assertEquals(listOf("OPEN"), topicEvents)
+        jobs.forEach { job -> job.cancel() }
+    }
+
+    @Test
+    fun testSlowSubscriberDoesNotLoseOrStallEvents() = runTest(UnconfinedTestDispatcher()) {
+        val bus = createBus()
+        val proceed = CompletableDeferred<Unit>()
+        val slowEvents = mutableListOf<String>()
+        val fastEvents = mutableListOf<String>()
+        val jobs = listOf(
+            launch {
+                bus.events(null, null).collect { event ->
+                    proceed.await()
+                    slowEvents.add(event.state)
+                }
+            },
+            launch { bus.events(null, null).collect { event -> fastEvents.add(event.state) } }
+        )
+
+        val states = (0 until 500).map { index -> index.toString() }
+        states.forEach { state -> sendCommand("Light", state) }
+        assertEquals("Slow subscribers must not stall others", states, fastEvents)
+
+        proceed.complete(Unit)
+        assertEquals("Slow subscribers must get all events", states, slowEvents)
+        jobs.forEach { job -> job.cancel() }
+    }
+
+    @Test
+    fun testSubscriptionIsLimitedToSingleItem() = runTest(UnconfinedTestDispatcher()) {
+        val bus = createBus()
+        val first = launch { bus.events("Light", null).collect { } }
+        val second = launch { bus.events("Light", null).collect { } }
+        assertEquals(listOf("*/items/Light/command"), sseTopics)
+
+        val third = launch { bus.events(null, null).collect { } }
+        assertEquals("*/items/*/command", sseTopics.last())
+
+        third.cancel()
+        assertEquals("*/items/Light/command", sseTopics.last())
+        first.cancel()
+        second.cancel()
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2010-2024 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.habdroid.util
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.EOFException
+import java.io.InputStream
+import kotlin.random.Random
+import org.junit.Assert.assertArrayEquals
+import org.junit.Test
+
+class MjpegInputStreamTest {
+    private fun createJpeg(length: Int): ByteArray {
+        // Leave out 0xFF, so the payload doesn't contain markers
+        val jpeg = ByteArray(length) { Random.nextInt(0, 0xFF).toByte() }
+        jpeg[0] = 0xFF.toByte()
+        jpeg[1] = 0xD8.toByte()
+        jpeg[length - 2] = 0xFF.toByte()
+        jpeg[length - 1] = 0xD9.toByte()
+        return jpeg
+    }
+
+    private fun createStream(jpegs: List<ByteArray>, withContentLength: Boolean): InputStream {
+        val out = ByteArrayOutputStream()
+        jpegs.forEach { jpeg ->
+            out.write("--frame\r\nContent-Type: image/jpeg\r\n".toByteArray())
+            if (withContentLength) {
+                out.write("Content-Length: ${jpeg.size}\r\n".toByteArray())
+            }
+            out.write("\r\n".toByteArray())
+            out.write(jpeg)
+            out.write("\r\n".toByteArray())
+        }
+        out.write("--frame--\r\n".toByteArray())
+        return ChunkedInputStream(out.toByteArray())
+    }
+
+    private fun MjpegInputStream.readFrameData(): ByteArray {
+        val frame = MjpegFrame()
+        readFrame(frame)
+        return frame.data.copyOf(frame.length)
+    }
+
+    @Test
+    fun testFramesAreSplitByContentLength() {
+        val jpegs = listOf(createJpeg(1000), createJpeg(500_000), createJpeg(20))
+        val stream = MjpegInputStream(createStream(jpegs, true), "frame")
+        jpegs.forEach { jpeg -> assertArrayEquals(jpeg, stream.readFrameData()) }
+    }
+
+    @Test
+    fun testFramesAreSplitByBoundary() {
+        // The boundary may also occur within the payload, just not after a line break and two dashes
+        val jpegWithBoundary = createJpeg(1000).also { jpeg -> "--frame".toByteArray().copyInto(jpeg, 100) }
+        val jpegs = listOf(jpegWithBoundary, createJpeg(500_000), createJpeg(20))
+        val stream = MjpegInputStream(createStream(jpegs, false), "\"frame\"")
+        jpegs.forEach { jpeg -> assertArrayEquals(jpeg, stream.readFrameData()) }
+    }
+
+    @Test
+    fun testFramesAreSplitByEndMarker() {
+        val jpegs = listOf(createJpeg(1000), createJpeg(500_000), createJpeg(20))
+        val stream = MjpegInputStream(createStream(jpegs, false))
+        jpegs.forEach { jpeg -> assertArrayEquals(jpeg, stream.readFrameData()) }
+    }
+
+    @Test(expected = EOFException::class)
+    fun testEndOfStreamIsReported() {
+        val stream = MjpegInputStream(createStream(listOf(createJpeg(1000)), true), "frame")
+        stream.readFrameData()
+        stream.readFrameData()
+    }
+
+    /**
+     * Returns few bytes per read, like a slow network connection does.
+     */
+    private class ChunkedInputStream(data: ByteArray) : ByteArrayInputStream(data) {
+        override fun read(b: ByteArray, off: Int, len: Int) = super.read(b, off, minOf(len, 777))
+    }
+}
@@ -17,8 +17,6 @@ import java.io.IOException
 import java.io.StringReader
 import java.security.cert.CertPathValidatorException
 import javax.net.ssl.SSLException
-import javax.xml.parsers.DocumentBuilderFactory
-import javax.xml.parsers.ParserConfigurationException
 import okhttp3.HttpUrl.Companion.toHttpUrl
 import org.json.JSONArray
 import org.json.JSONException
@@ -27,15 +25,16 @@ import org.junit.Assert.assertEquals
 import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import org.junit.Test
+import org.openhab.habdroid.model.readSitemapList
 import org.openhab.habdroid.model.sortedWithDefaultName
 import org.openhab.habdroid.model.toSitemapList
-import org.w3c.dom.Document
-import org.xml.sax.InputSource
-import org.xml.sax.SAXException
+import org.xmlpull.v1.XmlPullParser
+import org.xmlpull.v1.XmlPullParserException
+import org.xmlpull.v1.XmlPullParserFactory
 
 class UtilTest {
-    private val sitemapOH1Document: Document
-        @Throws(ParserConfigurationException::class, IOException::class, SAXException::class)
+    private val sitemapOH1Parser: XmlPullParser
+        @Throws(XmlPullParserException::class, IOException::class)
         get() {
             val xml =
                 """
@@ -115,9 +114,10 @@ class UtilTest {
                 </sitemaps>
                 """.trimIndent()
 
-            val dbf = DocumentBuilderFactory.newInstance()
-            val builder = dbf.newDocumentBuilder()
-            return builder.parse(InputSource(StringReader(xml)))
+            val parser = XmlPullParserFactory.newInstance().newPullParser()
+            parser.setInput(StringReader(xml))
+            parser.nextTag()
+            return parser
         }
 
     @Test
@@ -156,7 +156,7 @@ class UtilTest {
 
     @Test
     fun parseOH1SitemapList() {
-        val sitemapList = sitemapOH1Document.toSitemapList()
+        val sitemapList = sitemapOH1Parser.readSitemapList()
         assertFalse(sitemapList.isEmpty())
 
         assertEquals("i AM DEfault", sitemapList[0].label)
@@ -200,9 +200,9 @@ class UtilTest {
     }
 
     @Test
-    @Throws(IOException::class, SAXException::class, ParserConfigurationException::class)
+    @Throws(IOException::class, XmlPullParserException::class)
     fun testSortSitemapList() {
-        val sitemapList = sitemapOH1Document.toSitemapList()
+        val sitemapList = sitemapOH1Parser.readSitemapList()
 
         val sorted1 = sitemapList.sortedWithDefaultName("")
         // Should be sorted